@@ -22,6 +22,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.Looper;
 import android.util.DisplayMetrics;
@@ -41,9 +42,26 @@ public final class Spoon {
     private static final Pattern TAG_VALIDATION = Pattern.compile("[a-zA-Z0-9_-]+");
 
     public static final String APP_DATA_FILENAME = "app_data.dat";
+    /** Instrumentation argument naming the directory, created by the runner, to write test output to. */
+    public static final String ARTIFACT_DIRECTORY_ARG = "spoonArtifactDirectory";
+
+    private static String artifactDirectory;
+    private static boolean artifactDirectoryResolved;
 
     public static Set<String> clearedDirs = new HashSet<String>();
 
+    /**
+     * Write test output to the directory the runner passed in the instrumentation arguments. Test
+     * runners should call this from {@code onCreate}. Otherwise the arguments are looked up when the
+     * first output is written, which only works on API 18 and newer.
+     */
+    public static void init(Bundle arguments) {
+        synchronized (LOCK) {
+            artifactDirectory = arguments == null ? null : arguments.getString(ARTIFACT_DIRECTORY_ARG);
+            artifactDirectoryResolved = true;
+        }
+    }
+
     /**
      * This should create a file on disk that contains data about the app under test - split test
      * data - server data - user data
@@ -54,6 +72,18 @@ public final class Spoon {
 
         testClass = testClass.replaceAll("[^A-Za-z0-9._-]", "_");
 
+        try {
+            File dirMethod = obtainArtifactDirectory(APP_DATA, testClass, testMethod);
+            if (dirMethod != null) {
+                File appDataFile = new File(dirMethod, APP_DATA_FILENAME);
+                writeDataToFile(data, appDataFile);
+                Log.v(TAG, "wrote data file to " + appDataFile);
+                return appDataFile;
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Unable to write app data.", e);
+        }
+
         File dir = context.getDir(APP_DATA, MODE_WORLD_READABLE);
         Log.v(TAG, "dumpAppData- app data directory = " + dir);
 
@@ -131,6 +161,11 @@ public final class Spoon {
 
     // same as screenshots, but with different ir
     private static File obtainDirectory(String parentPath, Context context) throws IllegalAccessException {
+        StackTraceElement testClass = findTestClassTraceElement(Thread.currentThread().getStackTrace());
+        String className = testClass.getClassName().replaceAll("[^A-Za-z0-9._-]", "_");
+        File artifactDir = obtainArtifactDirectory(parentPath, className, testClass.getMethodName());
+        if (artifactDir != null) { return artifactDir; }
+
         File dir = context.getDir(parentPath, MODE_WORLD_READABLE);
         Log.v(TAG, "obtaining directory = " + dir);
 
@@ -143,8 +178,6 @@ public final class Spoon {
             }
         }
 
-        StackTraceElement testClass = findTestClassTraceElement(Thread.currentThread().getStackTrace());
-        String className = testClass.getClassName().replaceAll("[^A-Za-z0-9._-]", "_");
         File dirClass = new File(dir, className);
         File dirMethod = new File(dirClass, testClass.getMethodName());
         Log.v(TAG, "class = " + dirClass + "   method name = " + dirMethod);
@@ -152,6 +185,40 @@ public final class Spoon {
         return dirMethod;
     }
 
+    /**
+     * The directory for output of the test method in the directory created by the runner, or
+     * {@code null} if the runner did not pass one. The runner already cleared it and made it writable.
+     */
+    private static File obtainArtifactDirectory(String parentPath, String className, String methodName)
+        throws IllegalAccessException {
+        String root;
+        synchronized (LOCK) {
+            if (!artifactDirectoryResolved) {
+                Bundle arguments = instrumentationArguments();
+                artifactDirectory = arguments == null ? null : arguments.getString(ARTIFACT_DIRECTORY_ARG);
+                artifactDirectoryResolved = true;
+            }
+            root = artifactDirectory;
+        }
+        if (root == null) { return null; }
+        File dirMethod = new File(new File(new File(root, parentPath), className), methodName);
+        if (!dirMethod.isDirectory() && !dirMethod.mkdirs()) { throw new IllegalAccessException("Unable to create output dir: " + dirMethod.getAbsolutePath()); }
+        return dirMethod;
+    }
+
+    /** Arguments of the running instrumentation, or {@code null} if they are not available. */
+    private static Bundle instrumentationArguments() {
+        try {
+            Class<?> activityThread = Class.forName("android.app.ActivityThread");
+            Object thread = activityThread.getMethod("currentActivityThread").invoke(null);
+            Object instrumentation = activityThread.getMethod("getInstrumentation").invoke(thread);
+            return (Bundle) instrumentation.getClass().getMethod("getArguments").invoke(instrumentation);
+        } catch (Exception e) {
+            Log.v(TAG, "Instrumentation arguments unavailable: " + e);
+            return null;
+        }
+    }
+
     /**
      * Take a screenshot with the specified tag.
      * 
@@ -81,6 +81,62 @@ public class RunMojo extends AbstractSpoonMojo {
   @Parameter
   private boolean debug;
 
+  /** Run a disjoint slice of the tests on each device instead of the entire suite on all of them. */
+  @Parameter(defaultValue = "${spoon.shard}")
+  private boolean shard;
+
+  /** File in which test durations are kept so that shards take a similar amount of time. */
+  @Parameter(defaultValue = "${spoon.test.durations}")
+  private File testDurations;
+
+  /** Maximum number of devices running at the same time. Zero runs all of them at once. */
+  @Parameter(defaultValue = "${spoon.device.concurrency}")
+  private int deviceConcurrency;
+
+  /** Run all devices in the Maven process rather than forking one process per device. */
+  @Parameter(defaultValue = "${spoon.in.process}")
+  private boolean inProcess;
+
+  /** Install the APKs even if the devices already have identical ones. */
+  @Parameter(defaultValue = "${spoon.force.install}")
+  private boolean forceInstall;
+
+  /** Maximum number of installs and pulls running at the same time. Unlimited by default. */
+  @Parameter(defaultValue = "${spoon.transfer.limit}")
+  private int transferLimit;
+
+  /** Transfer group of each device, usually its USB bus, as SERIAL=GROUP pairs, comma separated. */
+  @Parameter(defaultValue = "${spoon.transfer.groups}")
+  private String transferGroups;
+
+  /** Wake and unlock the devices and turn off their system animations while running tests. */
+  @Parameter(defaultValue = "${spoon.prepare.devices}")
+  private boolean prepareDevices;
+
+  /** Number of sync connections over which each device's test output is pulled at once. */
+  @Parameter(defaultValue = "${spoon.pull.connections}")
+  private int pullConnections = 4;
+
+  /** Pack test output into a tar archive on the device and pull that single file. */
+  @Parameter(defaultValue = "${spoon.archive.pulls}")
+  private boolean archivePulls;
+
+  /** Number of log messages kept per device while a test runs, for the log of a failed test. */
+  @Parameter(defaultValue = "${spoon.log.buffer.size}")
+  private int logBufferSize = 20000;
+
+  /** Only have devices send log messages matching these logcat TAG:PRIORITY specs, comma separated. */
+  @Parameter(defaultValue = "${spoon.logcat.filters}")
+  private String logcatFilters;
+
+  /** Only have devices on API 24 and newer send log messages of the process running the tests. */
+  @Parameter(defaultValue = "${spoon.logcat.pid}")
+  private boolean logcatPid;
+
+  /** Receive the log of devices on API 24 and newer in binary form. */
+  @Parameter(defaultValue = "${spoon.logcat.binary}")
+  private boolean logcatBinary;
+
   @Parameter(property = "project.build.directory", required = true, readonly = true)
   private File buildDirectory;
 
@@ -149,8 +205,22 @@ public class RunMojo extends AbstractSpoonMojo {
 
     log.debug("Spoon title: " + title);
     log.debug("Debug: " + Boolean.toString(debug));
-
-    boolean success = new SpoonRunner.Builder() //
+    log.debug("Shard: " + Boolean.toString(shard));
+    log.debug("Test durations: " + testDurations);
+    log.debug("Device concurrency: " + deviceConcurrency);
+    log.debug("In process: " + Boolean.toString(inProcess));
+    log.debug("Force install: " + Boolean.toString(forceInstall));
+    log.debug("Transfer limit: " + transferLimit);
+    log.debug("Transfer groups: " + transferGroups);
+    log.debug("Prepare devices: " + Boolean.toString(prepareDevices));
+    log.debug("Pull connections: " + pullConnections);
+    log.debug("Archive pulls: " + Boolean.toString(archivePulls));
+    log.debug("Log buffer size: " + logBufferSize);
+    log.debug("Logcat filters: " + logcatFilters);
+    log.debug("Logcat pid: " + Boolean.toString(logcatPid));
+    log.debug("Logcat binary: " + Boolean.toString(logcatBinary));
+
+    SpoonRunner.Builder builder = new SpoonRunner.Builder() //
         .setTitle(title)
         .setApplicationApk(app)
         .setInstrumentationApk(instrumentation)
@@ -162,8 +232,41 @@ public class RunMojo extends AbstractSpoonMojo {
         .setMethodName(methodName)
         .useAllAttachedDevices()
         .setFailIfNoDeviceConnected(failIfNoDeviceConnected)
-        .build()
-        .run();
+        .setShard(shard)
+        .setTestDurations(testDurations)
+        .setDeviceConcurrency(deviceConcurrency)
+        .setInProcess(inProcess)
+        .setForceInstall(forceInstall)
+        .setTransferLimit(transferLimit)
+        .setPrepareDevices(prepareDevices)
+        .setPullConnections(pullConnections)
+        .setArchivePulls(archivePulls)
+        .setLogBufferSize(logBufferSize)
+        .setLogcatPid(logcatPid)
+        .setLogcatBinary(logcatBinary);
+    if (transferGroups != null) {
+      for (String transferGroup : transferGroups.split(",")) {
+        transferGroup = transferGroup.trim();
+        if (transferGroup.isEmpty()) {
+          continue;
+        }
+        int split = transferGroup.indexOf('=');
+        if (split <= 0 || split == transferGroup.length() - 1) {
+          throw new MojoExecutionException("Expected SERIAL=GROUP but was '" + transferGroup + "'.");
+        }
+        builder.setTransferGroup(transferGroup.substring(0, split), transferGroup.substring(split + 1));
+      }
+    }
+    if (logcatFilters != null) {
+      for (String logcatFilter : logcatFilters.split(",")) {
+        logcatFilter = logcatFilter.trim();
+        if (logcatFilter.isEmpty()) {
+          continue;
+        }
+        builder.addLogcatFilter(logcatFilter);
+      }
+    }
+    boolean success = builder.build().run();
 
     if (!success && failOnFailure) {
       throw new MojoExecutionException("Spoon returned non-zero exit code.");
@@ -0,0 +1,42 @@
+package com.squareup.spoon;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Content hashes of APKs, reused for as long as an APK's size and modification time do not change. */
+final class ApkFingerprint {
+    private static final ConcurrentMap<String, Hashed> HASHED = new ConcurrentHashMap<String, Hashed>();
+
+    /** SHA-1 of the contents of {@code apk} as a hex string. */
+    static String of(File apk) throws IOException {
+        String path = apk.getAbsolutePath();
+        long lastModified = apk.lastModified();
+        long length = apk.length();
+        Hashed hashed = HASHED.get(path);
+        if (hashed == null || hashed.lastModified != lastModified || hashed.length != length) {
+            hashed = new Hashed(lastModified, length, Files.hash(apk, Hashing.sha1()).toString());
+            HASHED.put(path, hashed);
+        }
+        return hashed.fingerprint;
+    }
+
+    private static final class Hashed {
+        final long lastModified;
+        final long length;
+        final String fingerprint;
+
+        Hashed(long lastModified, long length, String fingerprint) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private ApkFingerprint() {
+        // No instances.
+    }
+}
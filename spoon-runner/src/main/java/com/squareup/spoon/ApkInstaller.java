@@ -0,0 +1,195 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.CollectingOutputReceiver;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.InstallException;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+
+/**
+ * Installs APKs on a single device. After every install a marker holding the APK's fingerprint and
+ * installed location is written to the device, so an identical APK is not installed twice.
+ * <p>
+ * From API 24 APKs are streamed straight into the package manager through the ADB server rather
+ * than pushed to a temporary file first, and several may be installed at the same time.
+ */
+final class ApkInstaller {
+    private static final String MARKER_DIR = "/data/local/tmp";
+    private static final String PACKAGE_PREFIX = "package:";
+    private static final int STREAMING_API_LEVEL = 24;
+    private static final int INSTALL_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(5);
+
+    private final IDevice device;
+    private final String serial;
+    private final boolean debug;
+    private final boolean forceInstall;
+    private final boolean streaming;
+    private final TransferScheduler transfers;
+
+    ApkInstaller(IDevice device, String serial, boolean debug, boolean forceInstall, TransferScheduler transfers) {
+        this.device = checkNotNull(device);
+        this.transfers = checkNotNull(transfers);
+        this.serial = serial;
+        this.debug = debug;
+        this.forceInstall = forceInstall;
+        this.streaming = apiLevel(device) >= STREAMING_API_LEVEL;
+    }
+
+    /** {@code true} if installs on this device may run concurrently. */
+    boolean supportsConcurrentInstalls() {
+        return streaming;
+    }
+
+    /**
+     * Install {@code apk}, which contains {@code packageName}, unless the device already has it.
+     *
+     * @return an error message, or {@code null} if the APK is installed.
+     */
+    String install(File apk, String packageName, DeviceResult.Builder result) throws InstallException {
+        String fingerprint = null;
+        try {
+            fingerprint = ApkFingerprint.of(apk);
+        } catch (IOException e) {
+            logInfo("[%s] Unable to fingerprint %s, installing it regardless: %s", serial, apk, e.getMessage());
+        }
+
+        String marker = MARKER_DIR + "/spoon-" + packageName + ".install";
+        if (fingerprint != null && !forceInstall) {
+            String[] state = shell("pm path " + packageName + "; cat " + marker + " 2>/dev/null");
+            if (state != null && state[0] != null && (fingerprint + " " + state[0]).equals(state[1])) {
+                logInfo("[%s] %s is already installed, skipping.", serial, packageName);
+                return null;
+            }
+        }
+
+        logDebug(debug, "[%s] Installing %s from %s", serial, packageName, apk);
+        TransferScheduler.Slot slot;
+        try {
+            // The device waits on this install before it can run any test.
+            slot = transfers.acquire(TransferScheduler.Priority.BLOCKING);
+        } catch (InterruptedException e) {
+            throw new InstallException(e);
+        }
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            boolean installed = false;
+            if (streaming) {
+                try {
+                    error = streamInstall(apk);
+                    installed = true;
+                } catch (IOException e) {
+                    logInfo("[%s] Unable to stream %s, pushing it instead: %s", serial, apk.getName(), e.getMessage());
+                }
+            }
+            if (!installed) {
+                error = device.installPackage(apk.getAbsolutePath(), true);
+            }
+        } finally {
+            slot.release();
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logDebug(debug, "[%s] Installed %s in %d ms after waiting %d ms for the bus", serial, packageName, duration,
+            slot.getWaitMillis());
+        result.addInstallDuration(apk.getName(), duration);
+        result.addTransfer(new DeviceTransfer(DeviceTransfer.Kind.INSTALL, apk.getName(), apk.length(), slot.getWaitMillis(),
+            duration));
+        if (error == null && fingerprint != null) {
+            String[] state = shell("pm path " + packageName);
+            if (state != null && state[0] != null) {
+                shell("echo '" + fingerprint + " " + state[0] + "' > " + marker);
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Pipe {@code apk} into {@code cmd package install} through the ADB server.
+     *
+     * @return an error message, or {@code null} if the APK was installed.
+     */
+    private String streamInstall(File apk) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(AndroidDebugBridge.getSocketAddress());
+            socket.setSoTimeout(INSTALL_TIMEOUT);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            request(out, in, "host:transport:" + serial);
+            request(out, in, "exec:cmd package install -r -S " + apk.length());
+            Files.copy(apk, out);
+            out.flush();
+
+            // The package manager answers and closes the stream once the install is done.
+            String response = new String(ByteStreams.toByteArray(in), UTF_8).trim();
+            return response.startsWith("Success") ? null : response;
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    /** Send a single request to the ADB server and wait for it to be accepted. */
+    private static void request(OutputStream out, DataInputStream in, String request) throws IOException {
+        byte[] bytes = request.getBytes(UTF_8);
+        out.write(String.format("%04x", bytes.length).getBytes(UTF_8));
+        out.write(bytes);
+        out.flush();
+
+        byte[] status = new byte[4];
+        in.readFully(status);
+        if (!"OKAY".equals(new String(status, UTF_8))) {
+            byte[] length = new byte[4];
+            in.readFully(length);
+            byte[] message = new byte[Integer.parseInt(new String(length, UTF_8), 16)];
+            in.readFully(message);
+            throw new IOException("ADB rejected '" + request + "': " + new String(message, UTF_8));
+        }
+    }
+
+    private static int apiLevel(IDevice device) {
+        try {
+            return Integer.parseInt(device.getProperty(IDevice.PROP_BUILD_API_LEVEL));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Run {@code command} and split its output into the installed package path(s) and whatever
+     * else was printed, or return {@code null} if the command failed.
+     */
+    private String[] shell(String command) {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        try {
+            device.executeShellCommand(command, receiver);
+        } catch (Exception e) {
+            logDebug(debug, "[%s] Command '%s' failed: %s", serial, command, e.getMessage());
+            return null;
+        }
+        StringBuilder paths = new StringBuilder();
+        StringBuilder other = new StringBuilder();
+        for (String line : receiver.getOutput().split("\r?\n")) {
+            line = line.trim();
+            if (line.startsWith(PACKAGE_PREFIX)) {
+                // Split APKs list one path per line.
+                paths.append(paths.length() > 0 ? "," : "").append(line.substring(PACKAGE_PREFIX.length()));
+            } else if (line.length() > 0) {
+                other.append(other.length() > 0 ? "\n" : "").append(line);
+            }
+        }
+        return new String[] { paths.length() > 0 ? paths.toString() : null, other.toString() };
+    }
+}
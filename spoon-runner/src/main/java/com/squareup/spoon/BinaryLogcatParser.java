@@ -0,0 +1,178 @@
+package com.squareup.spoon;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Parses the binary log format written by {@code logcat -B} as it arrives. Entries are parsed in
+ * place and handed to the listener through a single reused {@link Entry}, so parsing allocates
+ * nothing per entry. Tags are interned and only a message which is asked for becomes a string.
+ */
+final class BinaryLogcatParser {
+    /** Largest entry the log driver accepts, header included. */
+    private static final int MAX_ENTRY = 5 * 1024;
+    /** Header size of version 1 entries, which leave the header size field zero. */
+    private static final int V1_HEADER = 20;
+    private static final int TAG_TABLE = 1024;
+    private static final int PID_TABLE = 256;
+
+    interface Listener {
+        /** Called for every entry. {@code entry} is only valid until this returns. */
+        void entry(Entry entry);
+    }
+
+    private final Listener listener;
+    private final byte[] buffer = new byte[2 * MAX_ENTRY];
+    private int length;
+    private final Entry entry = new Entry();
+    private final byte[][] tagBytes = new byte[TAG_TABLE][];
+    private final String[] tagStrings = new String[TAG_TABLE];
+    private int tagCount;
+    private final int[] pids = new int[PID_TABLE];
+    private final String[] pidStrings = new String[PID_TABLE];
+
+    BinaryLogcatParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Parse {@code count} more bytes of the log from {@code data}. */
+    void parse(byte[] data, int offset, int count) {
+        while (count > 0) {
+            int copied = Math.min(count, buffer.length - length);
+            System.arraycopy(data, offset, buffer, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+
+            int consumed = drain();
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            length -= consumed;
+        }
+    }
+
+    /** Hand every complete entry in the buffer to the listener and return the bytes they took. */
+    private int drain() {
+        int position = 0;
+        while (length - position >= 4) {
+            int payload = u16(position);
+            int header = u16(position + 2);
+            if (header == 0) {
+                header = V1_HEADER;
+            }
+            if (header < V1_HEADER || header + payload > MAX_ENTRY) {
+                throw new IllegalStateException("Corrupt binary log entry of " + payload + " bytes after a " + header
+                    + " byte header.");
+            }
+            int end = position + header + payload;
+            if (end > length) { break; }
+
+            entry.pid = i32(position + 4);
+            entry.tid = i32(position + 8);
+            entry.seconds = i32(position + 12);
+            entry.nanoseconds = i32(position + 16);
+            int start = position + header;
+            entry.priority = payload > 0 ? buffer[start] : 0;
+            int tagEnd = indexOfZero(start + 1, end);
+            entry.tag = intern(start + 1, tagEnd);
+            int messageStart = Math.min(tagEnd + 1, end);
+            int messageEnd = indexOfZero(messageStart, end);
+            // Text output drops the line break most messages end with.
+            while (messageEnd > messageStart && (buffer[messageEnd - 1] == '\n' || buffer[messageEnd - 1] == '\r')) {
+                messageEnd--;
+            }
+            entry.messageStart = messageStart;
+            entry.messageEnd = messageEnd;
+            listener.entry(entry);
+            position = end;
+        }
+        return position;
+    }
+
+    private int indexOfZero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == 0) { return i; }
+        }
+        return to;
+    }
+
+    private String intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        int slot = hash & (TAG_TABLE - 1);
+        while (tagBytes[slot] != null) {
+            if (equalsBuffer(tagBytes[slot], from, to)) { return tagStrings[slot]; }
+            slot = (slot + 1) & (TAG_TABLE - 1);
+        }
+        String tag = new String(buffer, from, to - from, UTF_8);
+        // Keep the table sparse. Beyond that a rare tag just isn't interned.
+        if (tagCount < TAG_TABLE / 2) {
+            tagBytes[slot] = Arrays.copyOfRange(buffer, from, to);
+            tagStrings[slot] = tag;
+            tagCount++;
+        }
+        return tag;
+    }
+
+    private boolean equalsBuffer(byte[] bytes, int from, int to) {
+        if (bytes.length != to - from) { return false; }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buffer[from + i]) { return false; }
+        }
+        return true;
+    }
+
+    private String pidString(int pid) {
+        int slot = pid & (PID_TABLE - 1);
+        if (pidStrings[slot] == null || pids[slot] != pid) {
+            pids[slot] = pid;
+            pidStrings[slot] = Integer.toString(pid);
+        }
+        return pidStrings[slot];
+    }
+
+    private int u16(int position) {
+        return (buffer[position] & 0xff) | (buffer[position + 1] & 0xff) << 8;
+    }
+
+    private int i32(int position) {
+        return (buffer[position] & 0xff) | (buffer[position + 1] & 0xff) << 8 | (buffer[position + 2] & 0xff) << 16
+            | buffer[position + 3] << 24;
+    }
+
+    /** A log entry, pointing into the parser's buffer. */
+    final class Entry {
+        int pid;
+        int tid;
+        int seconds;
+        int nanoseconds;
+        int priority;
+        String tag;
+        private int messageStart;
+        private int messageEnd;
+
+        /** The process ID as a string, shared by every entry of the same process. */
+        String pidString() {
+            return BinaryLogcatParser.this.pidString(pid);
+        }
+
+        String tidString() {
+            return BinaryLogcatParser.this.pidString(tid);
+        }
+
+        /** {@code true} if the message starts with {@code prefix}, which must be ASCII. */
+        boolean messageStartsWith(String prefix) {
+            if (messageEnd - messageStart < prefix.length()) { return false; }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buffer[messageStart + i] != prefix.charAt(i)) { return false; }
+            }
+            return true;
+        }
+
+        String message() {
+            return new String(buffer, messageStart, messageEnd - messageStart, UTF_8);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.squareup.spoon;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.createPrivateDirectory;
+import static com.squareup.spoon.SpoonUtils.userDirectory;
+
+/**
+ * Class data sharing archive for the device processes, cached by a hash of their classpath, the
+ * size and modification time of every entry on it and the JVM version. The first device process to
+ * start without an archive records one when it exits and every later process starts from it.
+ * <p>
+ * Archives need a JVM with dynamic AppCDS support (Java 13 or newer). Older JVMs ignore the
+ * options and start as usual.
+ */
+final class ClassDataSharing {
+    /** An archive still being written after this long was abandoned by a crashed process. */
+    private static final long ABANDONED_AFTER = TimeUnit.MINUTES.toMillis(30);
+
+    private final File archive;
+    private final File pending;
+
+    ClassDataSharing(File directory, String classpath) {
+        checkNotNull(directory);
+        checkNotNull(classpath);
+        String key = key(classpath);
+        this.archive = new File(directory, key + ".jsa");
+        this.pending = new File(directory, key + ".jsa.tmp");
+    }
+
+    /** Archives shared by all executions of this user, in a directory only they can access. */
+    static ClassDataSharing forClasspath(String classpath) {
+        return new ClassDataSharing(new File(userDirectory(), "cds"), classpath);
+    }
+
+    /**
+     * A rebuilt jar or another JVM at the same path needs a new archive. The JVM would reject the
+     * old one and nothing would ever record a new one.
+     */
+    private static String key(String classpath) {
+        Hasher hasher = Hashing.sha1().newHasher() //
+            .putString(System.getProperty("java.version", ""), UTF_8).putChar('\n') //
+            .putString(System.getProperty("java.vm.version", ""), UTF_8).putChar('\n') //
+            .putString(classpath, UTF_8).putChar('\n');
+        for (String entry : classpath.split(File.pathSeparator)) {
+            File file = new File(entry);
+            hasher.putLong(file.lastModified()).putLong(file.length());
+        }
+        return hasher.hash().toString();
+    }
+
+    /** Decide how the next device process uses the archive. */
+    synchronized Launch launch() {
+        if (archive.isFile()) {
+            return new Launch(false, "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-Xshare:auto");
+        }
+        if (pending.exists() && System.currentTimeMillis() - pending.lastModified() > ABANDONED_AFTER) {
+            pending.delete();
+        }
+        try {
+            createPrivateDirectory(pending.getParentFile());
+            if (pending.createNewFile()) {
+                logInfo("Recording class data sharing archive %s.", archive);
+                return new Launch(true, "-XX:ArchiveClassesAtExit=" + pending.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            logInfo("Unable to record class data sharing archive: %s", e.getMessage());
+        }
+        // Another process is recording the archive right now.
+        return new Launch(false);
+    }
+
+    /** JVM arguments and bookkeeping for a single device process. */
+    final class Launch {
+        private final boolean recording;
+        private final List<String> jvmArguments = new ArrayList<String>();
+
+        private Launch(boolean recording, String... arguments) {
+            this.recording = recording;
+            if (arguments.length > 0) {
+                // JVMs without AppCDS would otherwise refuse to start.
+                jvmArguments.add("-XX:+IgnoreUnrecognizedVMOptions");
+                // Standard output carries the device events, so archive warnings must not go there.
+                Collections.addAll(jvmArguments, "-Xlog:disable", "-Xlog:all=warning:stderr");
+                Collections.addAll(jvmArguments, arguments);
+            }
+        }
+
+        List<String> getJvmArguments() {
+            return jvmArguments;
+        }
+
+        /** Publish the recorded archive, if any, once the process has exited. */
+        void finished(int exitCode) {
+            if (!recording) { return; }
+            synchronized (ClassDataSharing.this) {
+                if (exitCode == 0 && pending.length() > 0 && pending.renameTo(archive)) {
+                    logInfo("Class data sharing archive ready at %s.", archive);
+                } else {
+                    pending.delete();
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.squareup.spoon;
 
 import com.android.ddmlib.IDevice;
+import java.util.Collections;
+import java.util.Map;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 import static com.google.common.base.Strings.emptyToNull;
@@ -78,18 +80,26 @@ public final class DeviceDetails {
     }
 
     static DeviceDetails createForDevice(IDevice device) {
-        String manufacturer = emptyToNull(device.getProperty("ro.product.manufacturer"));
-        String model = emptyToNull(device.getProperty("ro.product.model"));
+        return createForDevice(device, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Create the details of {@code device} from {@code properties} which were already read from it.
+     * Properties missing from the map are asked of the device.
+     */
+    static DeviceDetails createForDevice(IDevice device, Map<String, String> properties) {
+        String manufacturer = emptyToNull(property(device, properties, "ro.product.manufacturer"));
+        String model = emptyToNull(property(device, properties, "ro.product.model"));
         model = DeviceUtils.scrubModel(manufacturer, model);
 
-        String version = emptyToNull(device.getProperty("ro.build.version.release"));
-        String api = emptyToNull(device.getProperty("ro.build.version.sdk"));
+        String version = emptyToNull(property(device, properties, "ro.build.version.release"));
+        String api = emptyToNull(property(device, properties, "ro.build.version.sdk"));
         int apiLevel = api != null ? Integer.parseInt(api) : 0;
 
-        String language = emptyToNull(device.getProperty("ro.product.locale.language"));
+        String language = emptyToNull(property(device, properties, "ro.product.locale.language"));
         language = DeviceUtils.scrubLanguage(language);
 
-        String region = emptyToNull(device.getProperty("ro.product.locale.region"));
+        String region = emptyToNull(property(device, properties, "ro.product.locale.region"));
 
         boolean emulator = device.isEmulator();
         String avdName = emptyToNull(device.getAvdName());
@@ -97,6 +107,11 @@ public final class DeviceDetails {
         return new DeviceDetails(model, manufacturer, version, apiLevel, language, region, emulator, avdName);
     }
 
+    private static String property(IDevice device, Map<String, String> properties, String name) {
+        String value = properties.get(name);
+        return value != null ? value : device.getProperty(name);
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
@@ -0,0 +1,117 @@
+package com.squareup.spoon;
+
+import com.google.gson.JsonParseException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonUtils.GSON;
+
+/**
+ * Progress of a device process, streamed to its parent as it happens. Each event is written as a
+ * four byte length followed by that many bytes of JSON.
+ */
+final class DeviceEvent {
+    /** Largest frame accepted, far above the size of the result of a whole suite. */
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    enum Type {
+        TEST_STARTED, TEST_FAILED, TEST_ENDED, SCREENSHOT, RESULT
+    }
+
+    private final Type type;
+    private final DeviceTest test;
+    private final String trace;
+    private final String file;
+    private final DeviceResult result;
+
+    private DeviceEvent(Type type, DeviceTest test, String trace, String file, DeviceResult result) {
+        this.type = type;
+        this.test = test;
+        this.trace = trace;
+        this.file = file;
+        this.result = result;
+    }
+
+    static DeviceEvent testStarted(DeviceTest test) {
+        return new DeviceEvent(Type.TEST_STARTED, checkNotNull(test), null, null, null);
+    }
+
+    static DeviceEvent testFailed(DeviceTest test, String trace) {
+        return new DeviceEvent(Type.TEST_FAILED, checkNotNull(test), trace, null, null);
+    }
+
+    static DeviceEvent testEnded(DeviceTest test) {
+        return new DeviceEvent(Type.TEST_ENDED, checkNotNull(test), null, null, null);
+    }
+
+    static DeviceEvent screenshot(DeviceTest test, File screenshot) {
+        return new DeviceEvent(Type.SCREENSHOT, checkNotNull(test), null, screenshot.getAbsolutePath(), null);
+    }
+
+    /** The complete result of the device, always the last event. */
+    static DeviceEvent result(DeviceResult result) {
+        return new DeviceEvent(Type.RESULT, null, null, null, checkNotNull(result));
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    DeviceTest getTest() {
+        return test;
+    }
+
+    String getTrace() {
+        return trace;
+    }
+
+    File getFile() {
+        return file == null ? null : new File(file);
+    }
+
+    DeviceResult getResult() {
+        return result;
+    }
+
+    /** Write this event as a single frame and flush it. */
+    void writeTo(DataOutputStream out) throws IOException {
+        byte[] json = GSON.toJson(this).getBytes(UTF_8);
+        out.writeInt(json.length);
+        out.write(json);
+        out.flush();
+    }
+
+    /**
+     * Read the next event, or return {@code null} once the stream ends. A frame cut short by the
+     * process dying also ends the stream. Anything else which is not a frame, like output of the
+     * JVM itself, fails with an {@link IOException} instead of being trusted as a length.
+     */
+    static DeviceEvent readFrom(DataInputStream in) throws IOException {
+        byte[] json;
+        try {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_FRAME) {
+                throw new IOException(String.format("Not an event frame, length %d (0x%08x).", length, length));
+            }
+            json = new byte[length];
+            in.readFully(json);
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            return GSON.fromJson(new String(json, UTF_8), DeviceEvent.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed event: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + (test != null ? " " + test : "");
+    }
+}
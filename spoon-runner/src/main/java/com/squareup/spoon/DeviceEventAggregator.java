@@ -0,0 +1,95 @@
+package com.squareup.spoon;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+
+/**
+ * Builds the result of a device process from its {@link DeviceEvent}s as they arrive, so that a
+ * process which dies early still yields every test it reported.
+ */
+final class DeviceEventAggregator {
+    private final String serial;
+    private final boolean debug;
+    private final DeviceResult.Builder partial = new DeviceResult.Builder();
+    private final Map<DeviceTest, DeviceTestResult.Builder> running = new HashMap<DeviceTest, DeviceTestResult.Builder>();
+    private final Set<DeviceTest> failed = new HashSet<DeviceTest>();
+    private DeviceResult result;
+    private int finished;
+
+    DeviceEventAggregator(String serial, boolean debug) {
+        this.serial = serial;
+        this.debug = debug;
+    }
+
+    void accept(DeviceEvent event) {
+        switch (event.getType()) {
+            case TEST_STARTED:
+                logDebug(debug, "[%s] Started %s", serial, event.getTest());
+                partial.recordTestStarted();
+                running.put(event.getTest(), new DeviceTestResult.Builder().startTest());
+                break;
+            case TEST_FAILED:
+                logInfo("[%s] Failed %s", serial, event.getTest());
+                if (failed.add(event.getTest())) {
+                    builderFor(event.getTest()).markTestAsFailed(event.getTrace());
+                }
+                break;
+            case TEST_ENDED:
+                finished += 1;
+                logDebug(debug, "[%s] Ended %s (%d finished, %d failed)", serial, event.getTest(), finished, failed.size());
+                DeviceTestResult.Builder builder = builderFor(event.getTest());
+                running.remove(event.getTest());
+                partial.addTestResultBuilder(event.getTest(), builder.endTest());
+                break;
+            case SCREENSHOT:
+                logDebug(debug, "[%s] Screenshot %s", serial, event.getFile());
+                DeviceTestResult.Builder ended = partial.getMethodResultBuilder(event.getTest());
+                if (ended != null) {
+                    ended.addScreenshot(event.getFile());
+                }
+                break;
+            case RESULT:
+                result = event.getResult();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event " + event);
+        }
+    }
+
+    private DeviceTestResult.Builder builderFor(DeviceTest test) {
+        DeviceTestResult.Builder builder = running.get(test);
+        if (builder == null) {
+            builder = new DeviceTestResult.Builder().startTest();
+            running.put(test, builder);
+        }
+        return builder;
+    }
+
+    /** Note that the events could not be read past some point, for {@code reason}. */
+    void streamLost(String reason) {
+        partial.addException("Lost the event stream of the device process: " + reason);
+    }
+
+    /**
+     * The result reported by the process or, if it never got that far, one assembled from the
+     * events received before it exited with {@code exitCode}.
+     */
+    DeviceResult getResult(int exitCode) {
+        if (result != null) { return result; }
+        for (Map.Entry<DeviceTest, DeviceTestResult.Builder> entry : running.entrySet()) {
+            // Whatever was running when the process died did not pass.
+            DeviceTestResult.Builder builder = entry.getValue();
+            if (!failed.contains(entry.getKey())) {
+                builder.markTestAsError("Device process exited during this test.");
+            }
+            partial.addTestResultBuilder(entry.getKey(), builder.endTest());
+        }
+        running.clear();
+        return partial.addException("Device process exited with code " + exitCode + " before reporting its result.").build();
+    }
+}
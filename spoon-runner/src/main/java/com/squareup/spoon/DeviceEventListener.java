@@ -0,0 +1,78 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.testrunner.ITestRunListener;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.squareup.spoon.adapters.TestIdentifierAdapter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logError;
+
+/** Streams test progress of a device process to its parent as {@link DeviceEvent}s. */
+final class DeviceEventListener implements ITestRunListener {
+    private final DataOutputStream out;
+    private final TestIdentifierAdapter testIdentifierAdapter;
+    private boolean broken;
+
+    DeviceEventListener(DataOutputStream out, TestIdentifierAdapter testIdentifierAdapter) {
+        this.out = checkNotNull(out);
+        this.testIdentifierAdapter = checkNotNull(testIdentifierAdapter);
+    }
+
+    /** Send {@code event} to the parent. Failures are logged once and otherwise ignored. */
+    synchronized void send(DeviceEvent event) {
+        if (broken) { return; }
+        try {
+            event.writeTo(out);
+        } catch (IOException e) {
+            // The parent is gone. Keep running so the local output is still complete.
+            broken = true;
+            logError("Unable to send %s to parent process: %s", event, e.getMessage());
+        }
+    }
+
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+    }
+
+    @Override
+    public void testStarted(TestIdentifier test) {
+        send(DeviceEvent.testStarted(adapt(test)));
+    }
+
+    @Override
+    public void testFailed(TestIdentifier test, String trace) {
+        send(DeviceEvent.testFailed(adapt(test), trace));
+    }
+
+    @Override
+    public void testAssumptionFailure(TestIdentifier test, String trace) {
+    }
+
+    @Override
+    public void testIgnored(TestIdentifier test) {
+    }
+
+    @Override
+    public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+        send(DeviceEvent.testEnded(adapt(test)));
+    }
+
+    @Override
+    public void testRunFailed(String errorMessage) {
+    }
+
+    @Override
+    public void testRunStopped(long elapsedTime) {
+    }
+
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+    }
+
+    private DeviceTest adapt(TestIdentifier test) {
+        return DeviceTest.from(testIdentifierAdapter.adapt(test));
+    }
+}
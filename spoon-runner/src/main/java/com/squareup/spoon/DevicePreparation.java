@@ -0,0 +1,66 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Wakes and unlocks a device and turns off its system animations so they cannot disturb the
+ * tests. The previous state is read in the same shell session, so that {@link #restore()} can put
+ * it back once the tests ran.
+ */
+final class DevicePreparation {
+    private static final String[] ANIMATION_SCALES =
+        { "window_animation_scale", "transition_animation_scale", "animator_duration_scale" };
+    /** Exits with {@code 0} if the screen is on. Older releases report {@code mScreenOn} instead. */
+    private static final String SCREEN_ON = "dumpsys power | grep -qE 'mWakefulness=Awake|mScreenOn=true'";
+    private static final Pattern SCALE = Pattern.compile("[0-9]+(\\.[0-9]+)?");
+
+    private final IDevice device;
+    private final ShellBatch.Result screenOn;
+    private final ShellBatch.Result[] scales = new ShellBatch.Result[ANIMATION_SCALES.length];
+
+    /** Queue reading the current state and preparing the device to {@code batch}. */
+    DevicePreparation(IDevice device, ShellBatch batch) {
+        this.device = device;
+        screenOn = batch.add(SCREEN_ON);
+        for (int i = 0; i < ANIMATION_SCALES.length; i++) {
+            scales[i] = batch.add("settings get global " + ANIMATION_SCALES[i]);
+        }
+        batch.add("input keyevent KEYCODE_WAKEUP");
+        // Only dismisses a keyguard without security. Older releases unlock on the menu key instead.
+        batch.add("wm dismiss-keyguard || input keyevent KEYCODE_MENU");
+        for (String scale : ANIMATION_SCALES) {
+            batch.add("settings put global " + scale + " 0");
+        }
+    }
+
+    /** Put back the state read before the device was prepared, as far as it could be read. */
+    void restore() throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        restoration().execute(device);
+    }
+
+    ShellBatch restoration() {
+        ShellBatch batch = new ShellBatch();
+        for (int i = 0; i < ANIMATION_SCALES.length; i++) {
+            if (!scales[i].succeeded()) { continue; }
+            String value = scales[i].getOutput().trim();
+            if ("null".equals(value)) {
+                // The setting was never set, the system default applies.
+                batch.add("settings delete global " + ANIMATION_SCALES[i]);
+            } else if (SCALE.matcher(value).matches()) {
+                batch.add("settings put global " + ANIMATION_SCALES[i] + " " + value);
+            }
+        }
+        // grep exits with 1 when nothing matched, anything else means the state is unknown. Turning
+        // the screen off again also brings back the keyguard. The screen is checked first since the
+        // power key turns it on again if it already went off by itself.
+        if (screenOn.isComplete() && screenOn.getExitCode() == 1) {
+            batch.add(SCREEN_ON + " && input keyevent KEYCODE_POWER");
+        }
+        return batch;
+    }
+}
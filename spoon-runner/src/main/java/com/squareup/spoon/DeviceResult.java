@@ -23,9 +23,19 @@ public final class DeviceResult {
     private final long started;
     private final long duration;
     private final List<StackTrace> exceptions;
+    private final int shardIndex;
+    private final int numShards;
+    private final long firstTestStarted;
+    private final long processStartup;
+    private final Map<String, Long> installDurations;
+    private final List<DeviceTransfer> transfers;
+    private final long logLinesReceived;
+    private final long logLinesKept;
 
     private DeviceResult(boolean installFailed, String installMessage, DeviceDetails deviceDetails,
-        Map<DeviceTest, DeviceTestResult> testResults, long started, long duration, List<StackTrace> exceptions) {
+        Map<DeviceTest, DeviceTestResult> testResults, long started, long duration, List<StackTrace> exceptions, int shardIndex,
+        int numShards, long firstTestStarted, long processStartup,
+        Map<String, Long> installDurations, List<DeviceTransfer> transfers, long logLinesReceived, long logLinesKept) {
         this.installFailed = installFailed;
         this.installMessage = installMessage;
         this.deviceDetails = deviceDetails;
@@ -33,6 +43,14 @@ public final class DeviceResult {
         this.testResults = unmodifiableMap(new TreeMap<DeviceTest, DeviceTestResult>(testResults));
         this.duration = duration;
         this.exceptions = unmodifiableList(new ArrayList<StackTrace>(exceptions));
+        this.shardIndex = shardIndex;
+        this.numShards = numShards;
+        this.firstTestStarted = firstTestStarted;
+        this.processStartup = processStartup;
+        this.installDurations = unmodifiableMap(new TreeMap<String, Long>(installDurations));
+        this.transfers = unmodifiableList(new ArrayList<DeviceTransfer>(transfers));
+        this.logLinesReceived = logLinesReceived;
+        this.logLinesKept = logLinesKept;
     }
 
     /**
@@ -79,6 +97,49 @@ public final class DeviceResult {
         return exceptions;
     }
 
+    /** Zero-based index of the slice of the suite executed on this device. */
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /** Number of slices the suite was split into, or {@code 0} if the whole suite was executed. */
+    public int getNumShards() {
+        return numShards;
+    }
+
+    /** Time at which the first test started on this device, or {@code 0} if none did. */
+    public long getFirstTestStarted() {
+        return firstTestStarted;
+    }
+
+    /**
+     * Milliseconds the device process took to start and load its configuration, or {@code 0} if the
+     * device ran in the main process.
+     */
+    public long getProcessStartup() {
+        return processStartup;
+    }
+
+    /** Milliseconds spent installing each APK by file name. APKs which were already installed are absent. */
+    public Map<String, Long> getInstallDurations() {
+        return installDurations;
+    }
+
+    /** Installs, pushes and pulls made for this device, in the order they finished. */
+    public List<DeviceTransfer> getTransfers() {
+        return transfers;
+    }
+
+    /** Number of log messages the device sent. */
+    public long getLogLinesReceived() {
+        return logLinesReceived;
+    }
+
+    /** Number of log messages kept in the logs of tests. */
+    public long getLogLinesKept() {
+        return logLinesKept;
+    }
+
     static class Builder {
         private boolean installFailed = false;
         private String installMessage = null;
@@ -88,6 +149,14 @@ public final class DeviceResult {
         private long start;
         private long duration = -1;
         private final List<StackTrace> exceptions = new ArrayList<StackTrace>();
+        private int shardIndex;
+        private int numShards;
+        private long firstTestStarted;
+        private long processStartup;
+        private final Map<String, Long> installDurations = new HashMap<String, Long>();
+        private final List<DeviceTransfer> transfers = new ArrayList<DeviceTransfer>();
+        private long logLinesReceived;
+        private long logLinesKept;
 
         public Builder addTestResultBuilder(DeviceTest test, DeviceTestResult.Builder methodResultBuilder) {
             checkArgument(!installFailed, "Cannot add test result builder when install failed.");
@@ -106,6 +175,14 @@ public final class DeviceResult {
             return this;
         }
 
+        public Builder setShard(int shardIndex, int numShards) {
+            checkArgument(numShards > 0, "Number of shards must be positive.");
+            checkArgument(shardIndex >= 0 && shardIndex < numShards, "Shard index out of range.");
+            this.shardIndex = shardIndex;
+            this.numShards = numShards;
+            return this;
+        }
+
         public Builder markInstallAsFailed(String message) {
             checkNotNull(message);
             checkArgument(!installFailed, "Install already marked as failed.");
@@ -128,15 +205,56 @@ public final class DeviceResult {
             return this;
         }
 
+        /** Note that a test started. Only the first call is recorded. */
+        public Builder recordTestStarted() {
+            if (firstTestStarted == 0) {
+                firstTestStarted = new Date().getTime();
+            }
+            return this;
+        }
+
+        public Builder setProcessStartup(long millis) {
+            checkArgument(millis >= 0, "Process startup must not be negative.");
+            this.processStartup = millis;
+            return this;
+        }
+
+        public Builder addInstallDuration(String apk, long millis) {
+            checkNotNull(apk);
+            synchronized (installDurations) {
+                installDurations.put(apk, millis);
+            }
+            return this;
+        }
+
+        public Builder addTransfer(DeviceTransfer transfer) {
+            checkNotNull(transfer);
+            synchronized (transfers) {
+                transfers.add(transfer);
+            }
+            return this;
+        }
+
+        public Builder setLogLines(long received, long kept) {
+            checkArgument(kept <= received, "Cannot keep more log lines than were received.");
+            this.logLinesReceived = received;
+            this.logLinesKept = kept;
+            return this;
+        }
+
         public Builder addException(Throwable throwable) {
             checkNotNull(throwable);
-            exceptions.add(StackTrace.from(throwable));
+            synchronized (exceptions) {
+                exceptions.add(StackTrace.from(throwable));
+            }
             return this;
         }
 
         public Builder addException(String message) {
             checkNotNull(message);
-            exceptions.add(StackTrace.from(message));
+            synchronized (exceptions) {
+                exceptions.add(StackTrace.from(message));
+            }
             return this;
         }
 
@@ -147,7 +265,9 @@ public final class DeviceResult {
                 testResults.put(entry.getKey(), entry.getValue().build());
             }
 
-            return new DeviceResult(installFailed, installMessage, deviceDetails, testResults, started, duration, exceptions);
+            return new DeviceResult(installFailed, installMessage, deviceDetails, testResults, started, duration, exceptions, shardIndex,
+                numShards, firstTestStarted, processStartup,
+                installDurations, transfers, logLinesReceived, logLinesKept);
         }
     }
 }
@@ -6,14 +6,12 @@ import static java.util.Collections.unmodifiableList;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import com.android.ddmlib.logcat.LogCatMessage;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -35,21 +33,21 @@ public final class DeviceTestResult {
     private final long duration;
     private final List<File> screenshots;
     private final File animatedGif;
-    private final List<LogCatMessage> log;
+    private final TestLog log;
     private final List<KeyValuePair> splitTestAssignments;
     private final List<KeyValuePair> userData;
     private final List<KeyValuePair> serverData;
     private final List<GameTestData> gameTests;
 
     private DeviceTestResult(Status status, StackTrace exception, long duration, List<File> screenshots, File animatedGif,
-        List<LogCatMessage> log, List<KeyValuePair> splitTestAssignments, List<KeyValuePair> userData, List<KeyValuePair> serverData,
+        TestLog log, List<KeyValuePair> splitTestAssignments, List<KeyValuePair> userData, List<KeyValuePair> serverData,
         List<GameTestData> tests) {
         this.status = status;
         this.exception = exception;
         this.duration = duration;
         this.screenshots = unmodifiableList(new ArrayList<File>(screenshots));
         this.animatedGif = animatedGif;
-        this.log = unmodifiableList(new ArrayList<LogCatMessage>(log));
+        this.log = log;
         this.splitTestAssignments = splitTestAssignments;
         this.userData = userData;
         this.serverData = serverData;
@@ -81,7 +79,8 @@ public final class DeviceTestResult {
         return animatedGif;
     }
 
-    public List<LogCatMessage> getLog() {
+    /** Log of the test, read from disk as it is iterated. */
+    public TestLog getLog() {
         return log;
     }
 
@@ -108,7 +107,7 @@ public final class DeviceTestResult {
         private long start;
         private long duration = -1;
         private File animatedGif;
-        private List<LogCatMessage> log;
+        private TestLog log;
         private List<KeyValuePair> splitTestAssignments;
         private List<KeyValuePair> userData;
         private List<KeyValuePair> serverData;
@@ -130,7 +129,7 @@ public final class DeviceTestResult {
             return this;
         }
 
-        public Builder setLog(List<LogCatMessage> log) {
+        public Builder setLog(TestLog log) {
             checkNotNull(log);
             checkArgument(this.log == null, "Log already added.");
             this.log = log;
@@ -176,7 +175,7 @@ public final class DeviceTestResult {
 
         public DeviceTestResult build() {
             if (log == null) {
-                log = Collections.emptyList();
+                log = TestLog.EMPTY;
             }
             return new DeviceTestResult(status, exception, duration, screenshots, animatedGif, log, splitTestAssignments, userData,
                 serverData, gameTests);
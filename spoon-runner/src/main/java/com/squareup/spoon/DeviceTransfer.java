@@ -0,0 +1,59 @@
+package com.squareup.spoon;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** A single bulk transfer between the host and a device. */
+public final class DeviceTransfer {
+    public enum Kind {
+        INSTALL, PUSH, PULL
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final long bytes;
+    private final long waited;
+    private final long duration;
+
+    DeviceTransfer(Kind kind, String name, long bytes, long waited, long duration) {
+        this.kind = checkNotNull(kind);
+        this.name = checkNotNull(name);
+        this.bytes = bytes;
+        this.waited = waited;
+        this.duration = duration;
+    }
+
+    /** Direction and purpose of the transfer. */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** Local file or remote path which was transferred. */
+    public String getName() {
+        return name;
+    }
+
+    /** Number of bytes transferred. */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** Milliseconds spent waiting for other transfers on the same bus before this one started. */
+    public long getWaited() {
+        return waited;
+    }
+
+    /** Milliseconds the transfer itself took. */
+    public long getDuration() {
+        return duration;
+    }
+
+    /** Bytes transferred per second, or {@code 0} if the transfer took no measurable time. */
+    public long getBytesPerSecond() {
+        return duration > 0 ? bytes * 1000 / duration : 0;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + name + " (" + bytes + " bytes in " + duration + " ms, waited " + waited + " ms)";
+    }
+}
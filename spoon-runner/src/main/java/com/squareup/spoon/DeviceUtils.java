@@ -1,6 +1,23 @@
 package com.squareup.spoon;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 final class DeviceUtils {
+    private static final Pattern PROPERTY = Pattern.compile("^\\[([^\\]]+)\\]: \\[(.*)\\]\\s*$", Pattern.MULTILINE);
+
+    /** Parse the output of {@code getprop}, one {@code [name]: [value]} pair per line. */
+    static Map<String, String> parseProperties(String output) {
+        Map<String, String> properties = new HashMap<String, String>();
+        Matcher matcher = PROPERTY.matcher(output);
+        while (matcher.find()) {
+            properties.put(matcher.group(1), matcher.group(2));
+        }
+        return properties;
+    }
+
     /** Scrub the model so that it does not contain redundant data. */
     static String scrubModel(String manufacturer, String model) {
         if (manufacturer == null || model == null) { return model; }
@@ -0,0 +1,82 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Holds the most recent log messages of a device. A single thread adds messages without locking or
+ * allocating, overwriting the oldest once the buffer is full. Any thread can take a
+ * {@linkplain #mark() mark} and later copy every message added since.
+ */
+final class LogRingBuffer {
+    private final AtomicReferenceArray<LogCatMessage> entries;
+    private final int capacity;
+    /** Number of messages ever added. The next one goes in slot {@code written % entries.length()}. */
+    private final AtomicLong written = new AtomicLong();
+
+    LogRingBuffer(int capacity) {
+        checkArgument(capacity > 0, "Log buffer capacity must be positive.");
+        this.capacity = capacity;
+        // The spare slot is the one being written, so that a full buffer can still be copied.
+        this.entries = new AtomicReferenceArray<LogCatMessage>(capacity + 1);
+    }
+
+    /** Add {@code message}. Must only be called from one thread. */
+    void add(LogCatMessage message) {
+        long sequence = written.get();
+        entries.set((int) (sequence % entries.length()), message);
+        written.set(sequence + 1);
+    }
+
+    /** Position after the last message added so far, to be passed to {@link #since(long)}. */
+    long mark() {
+        return written.get();
+    }
+
+    /** Number of messages which were overwritten before anybody could copy them. */
+    long getOverflow() {
+        return Math.max(0, written.get() - capacity);
+    }
+
+    /** Copy every message added since {@code mark} which was not overwritten yet. */
+    Snapshot since(long mark) {
+        long end = written.get();
+        long start = Math.max(mark, end - capacity);
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>((int) Math.max(0, end - start));
+        for (long i = start; i < end; i++) {
+            messages.add(entries.get((int) (i % entries.length())));
+        }
+        // The writer may have lapped the oldest copies meanwhile.
+        long valid = Math.max(start, written.get() - capacity);
+        if (valid > start) {
+            messages = new ArrayList<LogCatMessage>(messages.subList((int) Math.min(valid - start, messages.size()),
+                messages.size()));
+        }
+        return new Snapshot(messages, valid - mark);
+    }
+
+    /** Messages copied from the buffer. */
+    static final class Snapshot {
+        private final List<LogCatMessage> messages;
+        private final long lost;
+
+        Snapshot(List<LogCatMessage> messages, long lost) {
+            this.messages = messages;
+            this.lost = lost;
+        }
+
+        List<LogCatMessage> getMessages() {
+            return messages;
+        }
+
+        /** Number of messages after the mark which were overwritten before the copy. */
+        long getLost() {
+            return lost;
+        }
+    }
+}
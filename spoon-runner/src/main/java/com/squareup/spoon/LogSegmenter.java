@@ -0,0 +1,80 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.squareup.spoon.SpoonLogger.logInfo;
+
+/**
+ * Splits a device log into the logs of individual tests as messages arrive. The instrumentation
+ * announces each test on the {@code TestRunner} tag and only messages from the process it runs in
+ * are kept. Kept messages go to a {@link LogStore}, where the log of each test is a range.
+ */
+final class LogSegmenter {
+    private static final String TEST_RUNNER = "TestRunner";
+    private static final Pattern MESSAGE_START = Pattern.compile("started: ([^(]+)\\(([^)]+)\\)");
+    private static final Pattern MESSAGE_END = Pattern.compile("finished: [^(]+\\([^)]+\\)");
+
+    private final LogStore store;
+    /** Start and end index in the store of the log of every test started so far. */
+    private final Map<DeviceTest, int[]> ranges = new LinkedHashMap<DeviceTest, int[]>();
+    private int[] current;
+    private String pid;
+    private boolean failed;
+
+    LogSegmenter(LogStore store) {
+        this.store = store;
+    }
+
+    /** Route {@code messages}, which follow those added before, to the log of their test. */
+    synchronized void addAll(List<LogCatMessage> messages) {
+        if (failed) { return; }
+        try {
+            for (int i = 0, size = messages.size(); i < size; i++) {
+                add(messages.get(i));
+            }
+        } catch (IOException e) {
+            failed = true;
+            logInfo("Unable to store log in %s, dropping the rest: %s", store.getFile(), e.getMessage());
+        }
+    }
+
+    private void add(LogCatMessage message) throws IOException {
+        boolean runner = TEST_RUNNER.equals(message.getTag());
+        if (runner) {
+            Matcher match = MESSAGE_START.matcher(message.getMessage());
+            if (match.matches()) {
+                // Also ends a test whose end was never seen.
+                int index = store.append(message);
+                current = new int[] { index, index + 1 };
+                pid = message.getPid();
+                ranges.put(new DeviceTest(match.group(2), match.group(1)), current);
+                return;
+            }
+        }
+        if (current == null) { return; }
+
+        // Only log messages from the same PID.
+        if (pid.equals(message.getPid())) {
+            current[1] = store.append(message) + 1;
+        }
+        if (runner && MESSAGE_END.matcher(message.getMessage()).matches()) {
+            current = null;
+            pid = null;
+        }
+    }
+
+    /** Log of every test started so far. They can be read once the store is closed. */
+    synchronized Map<DeviceTest, TestLog> getLogs() {
+        Map<DeviceTest, TestLog> logs = new LinkedHashMap<DeviceTest, TestLog>();
+        for (Map.Entry<DeviceTest, int[]> entry : ranges.entrySet()) {
+            logs.put(entry.getKey(), new TestLog(store, entry.getValue()[0], entry.getValue()[1]));
+        }
+        return logs;
+    }
+}
@@ -0,0 +1,300 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Keeps the log messages of a device in columns instead of as objects. Times, levels and IDs are
+ * primitive arrays, strings which repeat are stored once in a dictionary and message text is
+ * appended to a file, which is memory-mapped for reading once the store is closed. Messages are
+ * only created again when read.
+ * <p>
+ * Closing writes the columns to an index next to the message file, so that the process which
+ * renders the report can {@link #open(File) open} a store written by a device runner process.
+ */
+final class LogStore {
+    private static final int MAGIC = 0x53504c47;
+    private static final String INDEX_SUFFIX = ".index";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int WRITE_BUFFER = 64 * 1024;
+    private static final LogLevel[] LEVELS = LogLevel.values();
+    /** Stores opened by this process, by path. */
+    private static final Map<String, LogStore> OPENED = new HashMap<String, LogStore>();
+
+    private final File file;
+    private int size;
+    /** {@code MMddHHmmssSSS} as a number or, for times in another format, {@code -1 - id}. */
+    private long[] times;
+    private byte[] levels;
+    private int[] pids;
+    private int[] tids;
+    private int[] apps;
+    private int[] tags;
+    /** Offset in the message file just past each message. */
+    private long[] ends;
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private OutputStream out;
+    private boolean closed;
+    private FileChannel channel;
+    /** The message file, if it was small enough to map. */
+    private ByteBuffer mapped;
+
+    /** Create an empty store writing its messages to {@code file}, which is created on first use. */
+    LogStore(File file) {
+        this.file = file;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** Open a store which another process wrote and closed. Stores are opened once per process. */
+    static synchronized LogStore open(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        LogStore store = OPENED.get(path);
+        if (store == null) {
+            store = new LogStore(file);
+            store.readIndex();
+            store.map();
+            OPENED.put(path, store);
+        }
+        return store;
+    }
+
+    /**
+     * Forget the stores opened below {@code directory}, before it is deleted or written again.
+     * Messages of released stores too large to map can no longer be read.
+     */
+    static synchronized void release(File directory) {
+        String prefix = directory.getAbsolutePath() + File.separator;
+        for (Iterator<Map.Entry<String, LogStore>> i = OPENED.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, LogStore> entry = i.next();
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().closeChannel();
+                i.remove();
+            }
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /** Append {@code message} and return its index. */
+    synchronized int append(LogCatMessage message) throws IOException {
+        checkState(!closed, "Store is closed.");
+        if (out == null) {
+            file.getParentFile().mkdirs();
+            out = new BufferedOutputStream(new FileOutputStream(file), WRITE_BUFFER);
+        }
+        if (size == times.length) {
+            allocate(size * 2);
+        }
+        byte[] text = message.getMessage().getBytes(UTF_8);
+        out.write(text);
+
+        int index = size;
+        times[index] = packTime(message.getTime());
+        LogLevel level = message.getLogLevel();
+        levels[index] = level == null ? -1 : (byte) level.ordinal();
+        pids[index] = id(message.getPid());
+        tids[index] = id(message.getTid());
+        apps[index] = id(message.getAppName());
+        tags[index] = id(message.getTag());
+        ends[index] = (index == 0 ? 0 : ends[index - 1]) + text.length;
+        size = index + 1;
+        return index;
+    }
+
+    /** Stop appending, write the index and make the messages readable. */
+    synchronized void close() throws IOException {
+        if (closed) { return; }
+        closed = true;
+        if (out != null) {
+            out.close();
+            out = null;
+            writeIndex();
+            map();
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** Read the message at {@code index} of a closed store. */
+    synchronized LogCatMessage get(int index) throws IOException {
+        checkState(closed, "Store is still being written.");
+        checkElementIndex(index, size);
+        long start = index == 0 ? 0 : ends[index - 1];
+        byte[] text = new byte[(int) (ends[index] - start)];
+        if (mapped != null) {
+            mapped.position((int) start);
+            mapped.get(text);
+        } else {
+            checkState(channel != null, "Log store %s was released.", file);
+            ByteBuffer buffer = ByteBuffer.wrap(text);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Log store truncated: " + file);
+                }
+            }
+        }
+        byte level = levels[index];
+        return new LogCatMessage(level < 0 ? null : LEVELS[level], strings.get(pids[index]), strings.get(tids[index]),
+            strings.get(apps[index]), strings.get(tags[index]), unpackTime(times[index]), new String(text, UTF_8));
+    }
+
+    private void allocate(int capacity) {
+        times = times == null ? new long[capacity] : Arrays.copyOf(times, capacity);
+        levels = levels == null ? new byte[capacity] : Arrays.copyOf(levels, capacity);
+        pids = pids == null ? new int[capacity] : Arrays.copyOf(pids, capacity);
+        tids = tids == null ? new int[capacity] : Arrays.copyOf(tids, capacity);
+        apps = apps == null ? new int[capacity] : Arrays.copyOf(apps, capacity);
+        tags = tags == null ? new int[capacity] : Arrays.copyOf(tags, capacity);
+        ends = ends == null ? new long[capacity] : Arrays.copyOf(ends, capacity);
+    }
+
+    private int id(String string) {
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            ids.put(string, id);
+        }
+        return id;
+    }
+
+    /** Pack a {@code MM-dd HH:mm:ss.SSS} time into a number, or store it in the dictionary. */
+    private long packTime(String time) {
+        long packed = 0;
+        boolean valid = time != null && time.length() == 18;
+        for (int i = 0; valid && i < 18; i++) {
+            char c = time.charAt(i);
+            if (i == 2) {
+                valid = c == '-';
+            } else if (i == 5) {
+                valid = c == ' ';
+            } else if (i == 8 || i == 11) {
+                valid = c == ':';
+            } else if (i == 14) {
+                valid = c == '.';
+            } else if (c >= '0' && c <= '9') {
+                packed = packed * 10 + (c - '0');
+            } else {
+                valid = false;
+            }
+        }
+        return valid ? packed : -1 - id(time);
+    }
+
+    private String unpackTime(long packed) {
+        if (packed < 0) { return strings.get((int) (-1 - packed)); }
+        char[] time = "00-00 00:00:00.000".toCharArray();
+        for (int i = time.length - 1; i >= 0; i--) {
+            if (time[i] == '0') {
+                time[i] = (char) ('0' + packed % 10);
+                packed /= 10;
+            }
+        }
+        return new String(time);
+    }
+
+    private void writeIndex() throws IOException {
+        DataOutputStream index =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile()), WRITE_BUFFER));
+        try {
+            index.writeInt(MAGIC);
+            index.writeInt(strings.size());
+            for (String string : strings) {
+                index.writeBoolean(string != null);
+                if (string != null) {
+                    index.writeUTF(string);
+                }
+            }
+            index.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                index.writeLong(times[i]);
+                index.writeByte(levels[i]);
+                index.writeInt(pids[i]);
+                index.writeInt(tids[i]);
+                index.writeInt(apps[i]);
+                index.writeInt(tags[i]);
+                index.writeLong(ends[i]);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        closed = true;
+        File indexFile = indexFile();
+        if (!indexFile.exists()) { return; } // Nothing was logged.
+        DataInputStream index = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), WRITE_BUFFER));
+        try {
+            if (index.readInt() != MAGIC) { throw new IOException("Not a log store index: " + indexFile); }
+            for (int i = 0, count = index.readInt(); i < count; i++) {
+                strings.add(index.readBoolean() ? index.readUTF() : null);
+            }
+            size = index.readInt();
+            allocate(size);
+            for (int i = 0; i < size; i++) {
+                times[i] = index.readLong();
+                levels[i] = index.readByte();
+                pids[i] = index.readInt();
+                tids[i] = index.readInt();
+                apps[i] = index.readInt();
+                tags[i] = index.readInt();
+                ends[i] = index.readLong();
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /** Map the message file, or keep it open for reading if it is too large to map. */
+    private void map() throws IOException {
+        if (size == 0) { return; }
+        channel = new RandomAccessFile(file, "r").getChannel();
+        long length = ends[size - 1];
+        if (length <= Integer.MAX_VALUE) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            closeChannel();
+        }
+    }
+
+    private synchronized void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    private File indexFile() {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+}
@@ -0,0 +1,341 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.logcat.LogCatListener;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.android.ddmlib.logcat.LogCatMessageParser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+
+/**
+ * Streams the log of a device to a listener like ddmlib's {@code LogCatReceiverTask}, but has the
+ * device drop uninteresting messages before they are sent: by tag and priority, and on API 24 and
+ * newer by the process running the tests.
+ * <p>
+ * On API 24 and newer the log can also be received in binary form, which is cheaper to parse and
+ * lets messages outside of tests be dropped without ever creating them. Older devices send their
+ * output through a terminal which mangles binary data. If a corrupt entry arrives anyway, the
+ * stream is resumed as text.
+ */
+final class LogcatReceiver implements Runnable {
+    /** First API level whose logcat filters by process. */
+    static final int PID_API_LEVEL = 24;
+    /** First API level whose logcat can skip the messages already in its buffer. */
+    static final int TAIL_API_LEVEL = 21;
+    static final Pattern FILTER_SPEC = Pattern.compile("[^:\\s']+:[VDIWEFS]");
+    /** First API level whose shell passes binary output through unchanged. */
+    static final int BINARY_API_LEVEL = 24;
+    /** Test boundaries are needed to split the log, whatever else is filtered out. */
+    private static final String TEST_RUNNER_SPEC = "TestRunner:I";
+    private static final String TEST_RUNNER = "TestRunner";
+    private static final String STARTED = "started: ";
+    private static final String FINISHED = "finished: ";
+    private static final LogLevel[] LEVELS = { LogLevel.VERBOSE, LogLevel.VERBOSE, LogLevel.VERBOSE, LogLevel.DEBUG, LogLevel.INFO,
+        LogLevel.WARN, LogLevel.ERROR, LogLevel.ASSERT };
+
+    private final IDevice device;
+    private final int apiLevel;
+    private final List<String> filterSpecs;
+    private final String pidPackage;
+    private boolean binary;
+    private final LogCatListener listener;
+    private final ExecutorService lookups;
+    private final AtomicLong received = new AtomicLong();
+    private volatile boolean stopped;
+    private volatile String pid;
+    private volatile Stream stream;
+    /** Time of the last message received and the messages received at that time. */
+    private String lastTime;
+    private final List<LogCatMessage> atLastTime = new ArrayList<LogCatMessage>();
+    /** Process of the current test and whether one is running, as seen in the binary log. */
+    private int testPid;
+    private boolean inTest;
+    private SimpleDateFormat timeFormat;
+
+    /**
+     * @param filterSpecs
+     *            {@code TAG:PRIORITY} specs as understood by logcat, or none to receive every tag.
+     * @param pidPackage
+     *            Package whose process the log is limited to once {@link #refreshPid()} found it, or
+     *            {@code null} to receive the log of every process.
+     * @param binary
+     *            Receive the log in binary form if the device supports it.
+     */
+    LogcatReceiver(IDevice device, int apiLevel, List<String> filterSpecs, String pidPackage, boolean binary,
+        LogCatListener listener) {
+        this.device = checkNotNull(device);
+        this.apiLevel = apiLevel;
+        this.filterSpecs = new ArrayList<String>(filterSpecs);
+        this.pidPackage = apiLevel >= PID_API_LEVEL ? pidPackage : null;
+        this.binary = binary && apiLevel >= BINARY_API_LEVEL;
+        this.listener = checkNotNull(listener);
+        this.lookups = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("spoon-logcat-pid-%d")
+            .setDaemon(true).build());
+    }
+
+    @Override
+    public void run() {
+        if (binary) {
+            binary = initTimeFormat();
+        }
+        String since = null;
+        int skip = 0;
+        while (!stopped) {
+            String filterPid = pid;
+            Stream current = binary ? new BinaryStream(since, skip) : new TextStream(since, skip);
+            stream = current;
+            try {
+                device.executeShellCommand(command(filterPid, since), current, 0, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                if (!current.restart && !stopped) {
+                    logInfo("[%s] Log stream ended: %s", device.getSerialNumber(), e.getMessage());
+                }
+            }
+            if (!current.restart) { return; }
+
+            // Resume where the previous stream left off. The device sends the messages at that time
+            // again, so skip those which were already received.
+            since = lastTime;
+            skip = 0;
+            for (LogCatMessage message : atLastTime) {
+                if (message.getPid().equals(pid)) {
+                    skip += 1;
+                }
+            }
+        }
+    }
+
+    /** Logcat command receiving messages of {@code filterPid}, if any, from {@code since}, if any. */
+    String command(String filterPid, String since) {
+        StringBuilder command = new StringBuilder(binary ? "logcat -B" : "logcat -v long");
+        if (since != null) {
+            command.append(" -T '").append(since).append('\'');
+        } else if (apiLevel >= TAIL_API_LEVEL) {
+            // Only what is logged from now on.
+            command.append(" -T 1");
+        }
+        if (filterPid != null) {
+            command.append(" --pid=").append(filterPid);
+        }
+        if (!filterSpecs.isEmpty()) {
+            for (String spec : filterSpecs) {
+                command.append(" '").append(spec).append('\'');
+            }
+            command.append(' ').append(TEST_RUNNER_SPEC).append(" '*:S'");
+        }
+        return command.toString();
+    }
+
+    /**
+     * Look up the process of the tests in the background. If it changed, the stream is restarted to
+     * only receive the messages of the new one.
+     */
+    void refreshPid() {
+        if (pidPackage == null || stopped) { return; }
+        lookups.execute(new Runnable() {
+            @Override
+            public void run() {
+                ShellBatch batch = new ShellBatch();
+                ShellBatch.Result pidof = batch.add("pidof " + pidPackage);
+                try {
+                    batch.execute(device);
+                } catch (Exception e) {
+                    logDebug(true, "[%s] Unable to find process of %s: %s", device.getSerialNumber(), pidPackage, e.getMessage());
+                    return;
+                }
+                if (!pidof.succeeded()) { return; }
+                String[] pids = pidof.getOutput().trim().split("\\s+");
+                if (pids[0].length() == 0 || pids[0].equals(pid)) { return; }
+                pid = pids[0];
+                Stream current = stream;
+                if (current != null) {
+                    current.restart = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Format binary log times like text output does, in the time zone of the device.
+     *
+     * @return {@code false} if the time zone is unknown.
+     */
+    private boolean initTimeFormat() {
+        ShellBatch batch = new ShellBatch();
+        ShellBatch.Result offset = batch.add("date +%z");
+        try {
+            batch.execute(device);
+        } catch (Exception e) {
+            logDebug(true, "[%s] Unable to read time zone: %s", device.getSerialNumber(), e.getMessage());
+            return false;
+        }
+        String zone = offset.succeeded() ? offset.getOutput().trim() : "";
+        if (!zone.matches("[+-]\\d{4}")) {
+            logInfo("[%s] Unknown time zone '%s', receiving log as text.", device.getSerialNumber(), zone);
+            return false;
+        }
+        timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        timeFormat.setTimeZone(TimeZone.getTimeZone("GMT" + zone.substring(0, 3) + ":" + zone.substring(3)));
+        return true;
+    }
+
+    private String time(int seconds, int nanoseconds) {
+        return timeFormat.format(new Date((seconds & 0xffffffffL) * 1000 + nanoseconds / 1000000));
+    }
+
+    private static LogLevel level(int priority) {
+        return LEVELS[Math.max(0, Math.min(priority, LEVELS.length - 1))];
+    }
+
+    /** Number of messages the device sent. */
+    long getReceived() {
+        return received.get();
+    }
+
+    void stop() {
+        stopped = true;
+        lookups.shutdownNow();
+    }
+
+    /** Receives one logcat command's output and passes its messages on. */
+    private abstract class Stream implements IShellOutputReceiver {
+        private final String skipTime;
+        private int skip;
+        volatile boolean restart;
+
+        Stream(String skipTime, int skip) {
+            this.skipTime = skipTime;
+            this.skip = skip;
+        }
+
+        void deliver(List<LogCatMessage> messages) {
+            if (skip > 0) {
+                List<LogCatMessage> fresh = new ArrayList<LogCatMessage>(messages.size());
+                for (LogCatMessage message : messages) {
+                    if (skip > 0 && message.getTime().equals(skipTime)) {
+                        skip -= 1;
+                    } else {
+                        fresh.add(message);
+                    }
+                }
+                messages = fresh;
+            }
+            if (messages.isEmpty()) { return; }
+            for (LogCatMessage message : messages) {
+                if (!message.getTime().equals(lastTime)) {
+                    lastTime = message.getTime();
+                    atLastTime.clear();
+                }
+                atLastTime.add(message);
+            }
+            listener.log(messages);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return stopped || restart;
+        }
+    }
+
+    private final class TextStream extends Stream {
+        private final LogCatMessageParser parser = new LogCatMessageParser();
+        private final MultiLineReceiver lines = new MultiLineReceiver() {
+            @Override
+            public void processNewLines(String[] lines) {
+                if (isCancelled()) { return; }
+                List<LogCatMessage> messages = parser.processLogLines(lines, device);
+                received.addAndGet(messages.size());
+                deliver(messages);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return TextStream.this.isCancelled();
+            }
+        };
+
+        TextStream(String skipTime, int skip) {
+            super(skipTime, skip);
+            lines.setTrimLine(false);
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            lines.addOutput(data, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            lines.flush();
+        }
+    }
+
+    /**
+     * Parses binary log entries in place and only creates messages for those which can end up in
+     * the log of a test: test boundaries, and entries of the test process while a test runs.
+     */
+    private final class BinaryStream extends Stream implements BinaryLogcatParser.Listener {
+        private final BinaryLogcatParser parser = new BinaryLogcatParser(this);
+        private final List<LogCatMessage> batch = new ArrayList<LogCatMessage>();
+
+        BinaryStream(String skipTime, int skip) {
+            super(skipTime, skip);
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            if (isCancelled()) { return; }
+            try {
+                parser.parse(data, offset, length);
+            } catch (IllegalStateException e) {
+                // The stream can't be trusted past a corrupt entry. Resume it as text.
+                logInfo("[%s] %s Receiving the log as text from now on.", device.getSerialNumber(), e.getMessage());
+                binary = false;
+                restart = true;
+            }
+            if (!batch.isEmpty()) {
+                deliver(new ArrayList<LogCatMessage>(batch));
+                batch.clear();
+            }
+        }
+
+        @Override
+        public void entry(BinaryLogcatParser.Entry entry) {
+            received.incrementAndGet();
+            if (TEST_RUNNER.equals(entry.tag)) {
+                if (entry.messageStartsWith(STARTED)) {
+                    testPid = entry.pid;
+                    inTest = true;
+                } else if (entry.messageStartsWith(FINISHED)) {
+                    inTest = false;
+                }
+            } else if (!inTest || entry.pid != testPid) {
+                return;
+            }
+            String appName = device.getClientName(entry.pid);
+            batch.add(new LogCatMessage(level(entry.priority), entry.pidString(), entry.tidString(), appName != null ? appName
+                : "?", entry.tag, time(entry.seconds, entry.nanoseconds), entry.message()));
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
@@ -1,46 +1,57 @@
 package com.squareup.spoon;
 
-import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
 
 import com.android.ddmlib.IDevice;
-import com.android.ddmlib.logcat.LogCatListener;
 import com.android.ddmlib.logcat.LogCatMessage;
-import com.android.ddmlib.logcat.LogCatReceiverTask;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/** Keeps the log of failed tests only. Recent messages wait in a bounded buffer until a test fails. */
 final class LumosFailureDeviceLogger extends SpoonDeviceLogger {
-
-    private List<LogCatMessage> perTestMessages;
-
-    public LumosFailureDeviceLogger(IDevice device) {
-        super(device);
+    static final int DEFAULT_CAPACITY = 20000;
+
+    private final LogRingBuffer buffer;
+    /** Buffer mark at the start of the current test, or {@code -1} before the first test. */
+    private volatile long testStart = -1;
+
+    /**
+     * @param capacity
+     *            Number of messages kept while a test runs. Older messages of long tests are lost.
+     */
+    public LumosFailureDeviceLogger(IDevice device, File storeFile, int apiLevel, List<String> filterSpecs, String pidPackage,
+        boolean binary, int capacity) {
+        super(device, storeFile, apiLevel, filterSpecs, pidPackage, binary);
+        buffer = new LogRingBuffer(capacity);
     }
 
     @Override
     public void log(List<LogCatMessage> msgList) {
-
-        //if log statements keep coming in, and we are in between tests / not started, just don't worry about them
-        if (perTestMessages == null) return;
-
-        synchronized (perTestMessages) {
-            // TODO maybe a null check...
-            perTestMessages.addAll(msgList);
+        for (int i = 0, size = msgList.size(); i < size; i++) {
+            buffer.add(msgList.get(i));
         }
     }
 
     public void handleTestStarted() {
-        logDebug(true, "handleTestStarted() - creating new perTestMessages List");
-        perTestMessages = new ArrayList<LogCatMessage>();
+        testStart = buffer.mark();
+        refreshPid();
     }
 
     public void handleTestFailure() {
-        messages.addAll(perTestMessages);
+        long start = testStart;
+        //if a test fails before any has started there is nothing to keep
+        if (start < 0) return;
+
+        LogRingBuffer.Snapshot snapshot = buffer.since(start);
+        if (snapshot.getLost() > 0) {
+            logInfo("Log buffer overflowed, lost %d messages of the failed test.", snapshot.getLost());
+        }
+        segmenter.addAll(snapshot.getMessages());
     }
 
+    /** Number of messages overwritten so far, whether or not they belonged to a failed test. */
+    long getOverflow() {
+        return buffer.getOverflow();
+    }
 }
@@ -0,0 +1,412 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.FileListingService.FileEntry;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.SyncService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.obtainDirectoryFileEntry;
+
+/**
+ * Pulls directory trees from a single device. The remote tree is listed with one shell command and
+ * its files are then pulled over several sync connections at once. Connections are kept open for
+ * every pull from the device until the engine is closed.
+ * <p>
+ * In archive mode a tree is instead packed with {@code tar}. On API 24 and newer the archive is
+ * streamed out of the shell and extracted as it arrives. Older shells pass output through a
+ * terminal which mangles binary data, so there the archive is written to a file on the device and
+ * pulled before it is extracted. Devices without {@code tar} fall back to pulling the files one by
+ * one.
+ */
+final class PullEngine {
+    private static final String NO_SUCH_FILE = "No such file";
+    private static final String ARCHIVE_DIR = "/data/local/tmp";
+    /** Start of the line which follows a streamed archive, with the exit code of {@code tar}. */
+    private static final String STREAM_STATUS = "spoon-tar-status ";
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private final IDevice device;
+    private final String serial;
+    private final boolean stream;
+    private final boolean debug;
+    private final TransferScheduler transfers;
+    private final int connections;
+    private volatile boolean archive;
+    private final BlockingQueue<SyncService> idle = new LinkedBlockingQueue<SyncService>();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong millis = new AtomicLong();
+    private ExecutorService executor;
+
+    /**
+     * @param connections
+     *            Number of sync connections over which files are pulled at the same time.
+     * @param archive
+     *            Pull each tree as a single archive packed on the device.
+     */
+    PullEngine(IDevice device, String serial, int apiLevel, boolean debug, TransferScheduler transfers, int connections,
+        boolean archive) {
+        checkArgument(connections > 0, "Number of pull connections must be positive.");
+        this.device = checkNotNull(device);
+        this.serial = serial;
+        this.stream = apiLevel >= LogcatReceiver.BINARY_API_LEVEL;
+        this.debug = debug;
+        this.transfers = checkNotNull(transfers);
+        this.connections = connections;
+        this.archive = archive;
+    }
+
+    /**
+     * Pull {@code remoteDir} into {@code localDir}, which is named after it, once the bus has room
+     * for the transfer. Nothing is created locally if the remote directory is empty or missing.
+     */
+    DeviceTransfer pull(String remoteDir, File localDir) throws Exception {
+        // Pulls never keep a device from starting its tests so any device still installing goes first.
+        TransferScheduler.Slot slot = transfers.acquire(TransferScheduler.Priority.BACKGROUND);
+        long start = System.nanoTime();
+        int count = -1;
+        ByteCounter pulled = new ByteCounter();
+        try {
+            if (archive) {
+                count = stream ? streamArchive(remoteDir, localDir, pulled) : pullArchive(remoteDir, localDir, pulled);
+            }
+            if (count < 0) {
+                List<String> remoteFiles = listFiles(remoteDir);
+                if (remoteFiles == null) {
+                    // No usable listing on this device. Let a single connection walk the tree.
+                    localDir.getParentFile().mkdirs();
+                    SyncService sync = borrow();
+                    try {
+                        sync.pull(new FileEntry[] { obtainDirectoryFileEntry(remoteDir) }, localDir.getParent(), pulled);
+                    } catch (Exception e) {
+                        sync.close();
+                        throw e;
+                    }
+                    idle.add(sync);
+                } else {
+                    count = remoteFiles.size();
+                    pullFiles(remoteDir, remoteFiles, localDir, pulled);
+                }
+            }
+        } finally {
+            slot.release();
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // What came over the wire, not what the local directory may already have held.
+        long size = pulled.get();
+        logDebug(debug, "[%s] Pulled %s (%d files, %d bytes) in %d ms", serial, remoteDir, count, size, duration);
+        if (count > 0) {
+            files.addAndGet(count);
+        }
+        bytes.addAndGet(size);
+        millis.addAndGet(duration);
+        return new DeviceTransfer(DeviceTransfer.Kind.PULL, remoteDir, size, slot.getWaitMillis(), duration);
+    }
+
+    /**
+     * Stream an archive of {@code remoteDir} out of the shell and extract it next to
+     * {@code localDir} while it arrives.
+     *
+     * @return the number of files extracted, or {@code -1} if the device cannot create archives.
+     */
+    private int streamArchive(String remoteDir, File localDir, ByteCounter pulled) throws Exception {
+        int split = remoteDir.lastIndexOf('/');
+        // Only the archive may come before the status line, so errors are dropped.
+        String command = "if [ -d '" + remoteDir + "' ]; then tar -cf - -C '" + remoteDir.substring(0, split) + "' '"
+            + remoteDir.substring(split + 1) + "' 2>/dev/null; echo " + STREAM_STATUS + "$?; else echo " + STREAM_STATUS
+            + "missing; fi";
+        ArchiveReceiver receiver = new ArchiveReceiver(localDir.getParentFile(), pulled);
+        try {
+            device.executeShellCommand(command, receiver);
+        } finally {
+            receiver.finish();
+        }
+        String status = receiver.getStatus();
+        if ("missing".equals(status)) { return 0; }
+        if (!"0".equals(status)) {
+            logInfo("[%s] Unable to archive %s (status %s), pulling its files instead.", serial, remoteDir, status);
+            archive = false;
+            return -1;
+        }
+        return receiver.getFiles();
+    }
+
+    /**
+     * Pack {@code remoteDir} into an archive on the device, pull it and extract it next to
+     * {@code localDir}. The sync protocol only pulls into a local file, so the archive is
+     * extracted from a temporary copy.
+     *
+     * @return the number of files extracted, or {@code -1} if the device cannot create archives.
+     */
+    private int pullArchive(String remoteDir, File localDir, ByteCounter pulled) throws Exception {
+        int split = remoteDir.lastIndexOf('/');
+        String remoteArchive = ARCHIVE_DIR + "/spoon-" + UUID.randomUUID() + ".tar";
+        ShellBatch pack = new ShellBatch();
+        ShellBatch.Result tar = pack.add("tar -cf " + remoteArchive + " -C '" + remoteDir.substring(0, split) + "' '"
+            + remoteDir.substring(split + 1) + "'");
+        try {
+            pack.execute(device);
+            if (!tar.succeeded()) {
+                if (tar.isComplete() && tar.getOutput().contains(NO_SUCH_FILE)) { return 0; }
+                logInfo("[%s] Unable to archive %s, pulling its files instead: %s", serial, remoteDir, tar.getOutput());
+                archive = false;
+                return -1;
+            }
+
+            File localArchive = File.createTempFile("spoon-" + SpoonUtils.sanitizeSerial(serial), ".tar");
+            try {
+                SyncService sync = borrow();
+                try {
+                    sync.pullFile(remoteArchive, localArchive.getAbsolutePath(), pulled);
+                } catch (Exception e) {
+                    sync.close();
+                    throw e;
+                }
+                idle.add(sync);
+                InputStream in = new BufferedInputStream(new FileInputStream(localArchive));
+                try {
+                    return TarExtractor.extract(in, localDir.getParentFile());
+                } finally {
+                    in.close();
+                }
+            } finally {
+                localArchive.delete();
+            }
+        } finally {
+            ShellBatch cleanup = new ShellBatch();
+            cleanup.add("rm -f " + remoteArchive);
+            try {
+                cleanup.execute(device);
+            } catch (Exception e) {
+                logDebug(debug, "[%s] Unable to delete %s: %s", serial, remoteArchive, e.getMessage());
+            }
+        }
+    }
+
+    /** Every file below {@code remoteDir}, or {@code null} if the device cannot list them. */
+    private List<String> listFiles(String remoteDir) throws Exception {
+        ShellBatch batch = new ShellBatch();
+        ShellBatch.Result listing = batch.add("find '" + remoteDir + "' -type f");
+        batch.execute(device);
+        List<String> remoteFiles = new ArrayList<String>();
+        if (!listing.succeeded()) {
+            // A missing directory simply has no files. Anything else means find is unavailable.
+            return listing.isComplete() && listing.getOutput().contains(NO_SUCH_FILE) ? remoteFiles : null;
+        }
+        for (String line : listing.getOutput().split("\r?\n")) {
+            if (line.startsWith(remoteDir + "/")) {
+                remoteFiles.add(line);
+            }
+        }
+        return remoteFiles;
+    }
+
+    private void pullFiles(String remoteDir, List<String> remoteFiles, File localDir, final ByteCounter pulled) throws Exception {
+        if (remoteFiles.isEmpty()) { return; }
+        List<Future<Void>> pulls = new ArrayList<Future<Void>>(remoteFiles.size());
+        for (final String remoteFile : remoteFiles) {
+            final File localFile = new File(localDir, remoteFile.substring(remoteDir.length() + 1));
+            pulls.add(executor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    localFile.getParentFile().mkdirs();
+                    SyncService sync = borrow();
+                    try {
+                        sync.pullFile(remoteFile, localFile.getAbsolutePath(), pulled);
+                    } catch (Exception e) {
+                        // A connection which failed is in an unknown state and is not reused.
+                        sync.close();
+                        throw e;
+                    }
+                    idle.add(sync);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> pull : pulls) {
+                pull.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> pull : pulls) {
+                pull.cancel(false);
+            }
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /** An open connection which nobody else is using. */
+    private SyncService borrow() throws Exception {
+        SyncService sync = idle.poll();
+        return sync != null ? sync : device.getSyncService();
+    }
+
+    private ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(connections, new ThreadFactoryBuilder().setNameFormat("spoon-pull-" + serial + "-%d")
+                .setDaemon(true).build());
+        }
+        return executor;
+    }
+
+    /**
+     * Feeds the shell output of a streamed archive to an extractor on another thread, keeping the
+     * end of the output for the status line which follows the archive.
+     */
+    private final class ArchiveReceiver implements IShellOutputReceiver {
+        private final PipedOutputStream out = new PipedOutputStream();
+        private final ByteCounter pulled;
+        private final Future<Integer> extraction;
+        private final byte[] tail = new byte[64];
+        private int tailLength;
+        private boolean closed;
+
+        ArchiveReceiver(final File directory, ByteCounter pulled) throws IOException {
+            this.pulled = pulled;
+            final InputStream in = new PipedInputStream(out, PIPE_SIZE);
+            extraction = executor().submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    try {
+                        return TarExtractor.extract(in, directory);
+                    } finally {
+                        // Read the status line, or the rest of an archive which failed, so the shell never blocks.
+                        byte[] rest = new byte[PIPE_SIZE];
+                        while (in.read(rest) != -1) {
+                        }
+                        in.close();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            pulled.advance(length);
+            keepTail(data, offset, length);
+            if (closed) { return; }
+            try {
+                out.write(data, offset, length);
+            } catch (IOException e) {
+                // The extractor stopped reading. Its own failure is reported by getFiles().
+                closed = true;
+            }
+        }
+
+        private void keepTail(byte[] data, int offset, int length) {
+            if (length >= tail.length) {
+                System.arraycopy(data, offset + length - tail.length, tail, 0, tail.length);
+                tailLength = tail.length;
+                return;
+            }
+            int keep = Math.min(tailLength, tail.length - length);
+            System.arraycopy(tail, tailLength - keep, tail, 0, keep);
+            System.arraycopy(data, offset, tail, keep, length);
+            tailLength = keep + length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        /** Mark the end of the archive. */
+        void finish() throws IOException {
+            closed = true;
+            out.close();
+        }
+
+        /** Exit code of {@code tar}, {@code missing} if there was no directory or {@code null}. */
+        String getStatus() {
+            String end = new String(tail, 0, tailLength, UTF_8);
+            int start = end.lastIndexOf(STREAM_STATUS);
+            return start == -1 ? null : end.substring(start + STREAM_STATUS.length()).trim();
+        }
+
+        /** Number of files extracted, once the archive has ended. */
+        int getFiles() throws Exception {
+            try {
+                return extraction.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+    }
+
+    /** Counts the bytes of a single pull, which may come in over several connections at once. */
+    private static final class ByteCounter implements SyncService.ISyncProgressMonitor {
+        private final AtomicLong bytes = new AtomicLong();
+
+        long get() {
+            return bytes.get();
+        }
+
+        @Override
+        public void start(int totalWork) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public void startSubTask(String name) {
+        }
+
+        @Override
+        public void advance(int work) {
+            bytes.addAndGet(work);
+        }
+    }
+
+    /** Close the connections and log the throughput of every pull so far. */
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        SyncService sync;
+        while ((sync = idle.poll()) != null) {
+            sync.close();
+        }
+        if (bytes.get() > 0) {
+            logInfo("[%s] Pulled %d files, %d KB in %d ms (%d KB/s) over up to %d connections.", serial, files.get(),
+                bytes.get() / 1024, millis.get(), millis.get() > 0 ? bytes.get() * 1000 / millis.get() / 1024 : 0, connections);
+        }
+    }
+}
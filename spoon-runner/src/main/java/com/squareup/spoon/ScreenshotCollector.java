@@ -0,0 +1,93 @@
+package com.squareup.spoon;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+
+/**
+ * Pulls the screenshots of each test from the device in the background as soon as the test ends,
+ * so the transfers overlap with the tests which follow instead of all happening after the last one.
+ */
+final class ScreenshotCollector {
+    private final PullEngine pulls;
+    private final String serial;
+    private final boolean debug;
+    private final String devicePath;
+    private final File localDir;
+    private final DeviceResult.Builder result;
+    private final ExecutorService executor;
+    private volatile boolean failed;
+
+    /**
+     * @param devicePath
+     *            Directory on the device holding a directory of screenshots per test class.
+     * @param localDir
+     *            Directory into which the screenshots are pulled, keeping the same layout.
+     */
+    ScreenshotCollector(PullEngine pulls, String serial, boolean debug, String devicePath, File localDir,
+        DeviceResult.Builder result) {
+        this.pulls = checkNotNull(pulls);
+        this.serial = serial;
+        this.debug = debug;
+        this.devicePath = checkNotNull(devicePath);
+        this.localDir = checkNotNull(localDir);
+        this.result = checkNotNull(result);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("spoon-screenshots-" + serial)
+            .setDaemon(true).build());
+    }
+
+    /** Start pulling the screenshots of {@code test}, which just ended. */
+    void testEnded(final DeviceTest test) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (failed) { return; }
+                // Same naming as the client library uses on the device.
+                String className = test.getClassName().replaceAll("[^A-Za-z0-9._-]", "_");
+                File testDir = FileUtils.getFile(localDir, className, test.getMethodName());
+                try {
+                    DeviceTransfer transfer = pulls.pull(devicePath + "/" + className + "/" + test.getMethodName(), testDir);
+                    String[] screenshots = testDir.list();
+                    if (screenshots == null || screenshots.length == 0) {
+                        // Most tests take no screenshots. Only deletes directories which are empty.
+                        testDir.delete();
+                        testDir.getParentFile().delete();
+                    } else {
+                        logDebug(debug, "[%s] Pulled %d screenshots of %s", serial, screenshots.length, test);
+                        result.addTransfer(transfer);
+                    }
+                } catch (Exception e) {
+                    // Leave everything to the complete pull after the tests.
+                    failed = true;
+                    logInfo("[%s] Unable to pull screenshots of %s: %s", serial, test, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Note that the instrumentation failed, which may have interrupted a test before it ended. */
+    void testRunFailed() {
+        failed = true;
+    }
+
+    /**
+     * Wait for the pulls which are still running.
+     *
+     * @return {@code true} if the screenshots of every ended test were pulled, {@code false} if the
+     *         whole screenshot directory needs to be pulled instead.
+     */
+    boolean finish() throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            logDebug(debug, "[%s] Still pulling screenshots.", serial);
+        }
+        return !failed;
+    }
+}
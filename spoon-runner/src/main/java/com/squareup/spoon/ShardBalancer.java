@@ -0,0 +1,111 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.squareup.spoon.adapters.TestIdentifierAdapter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** Splits tests into shards of roughly equal expected duration. */
+final class ShardBalancer {
+    /**
+     * Assign {@code tests} to {@code numShards} shards using longest-processing-time-first: the
+     * tests are visited from slowest to fastest and each one goes to the shard with the least
+     * expected work so far. Tests shorter than a second (or without history when the default is
+     * zero) still count as one second so that they are spread by count.
+     *
+     * @param adapter
+     *            Adapter of the test runner, which named the tests whose durations were recorded.
+     * @return exactly {@code numShards} lists of tests, some of which may be empty.
+     */
+    static List<List<DeviceTest>> balance(List<DeviceTest> tests, int numShards, TestDurationHistory history,
+        TestIdentifierAdapter adapter, long defaultEstimate) {
+        checkNotNull(tests);
+        checkNotNull(history);
+        checkNotNull(adapter);
+        checkArgument(numShards > 0, "Number of shards must be positive.");
+
+        final Map<DeviceTest, Long> weights = new HashMap<DeviceTest, Long>();
+        for (DeviceTest test : tests) {
+            DeviceTest recorded = DeviceTest.from(adapter.adapt(new TestIdentifier(test.getClassName(), test.getMethodName())));
+            weights.put(test, weight(history.estimate(recorded, defaultEstimate)));
+        }
+
+        // Longest first. The sort is stable so equal tests keep the instrumentation's order.
+        List<DeviceTest> sorted = new ArrayList<DeviceTest>(tests);
+        Collections.sort(sorted, new Comparator<DeviceTest>() {
+            @Override
+            public int compare(DeviceTest lhs, DeviceTest rhs) {
+                long lhsEstimate = weights.get(lhs);
+                long rhsEstimate = weights.get(rhs);
+                return lhsEstimate < rhsEstimate ? 1 : (lhsEstimate == rhsEstimate ? 0 : -1);
+            }
+        });
+
+        List<List<DeviceTest>> shards = new ArrayList<List<DeviceTest>>(numShards);
+        long[] loads = new long[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new ArrayList<DeviceTest>());
+        }
+        for (DeviceTest test : sorted) {
+            int target = 0;
+            for (int i = 1; i < numShards; i++) {
+                // Prefer the least loaded shard, then the one with the fewest tests.
+                if (loads[i] < loads[target] || (loads[i] == loads[target] && shards.get(i).size() < shards.get(target).size())) {
+                    target = i;
+                }
+            }
+            shards.get(target).add(test);
+            loads[target] += weights.get(test);
+        }
+        return shards;
+    }
+
+    /**
+     * Names selecting exactly the tests of {@code shard} out of {@code suite}: the class name of a
+     * class whose tests are all in the shard, and {@code class#method} for every other test.
+     */
+    static List<String> testNames(List<DeviceTest> shard, List<DeviceTest> suite) {
+        Map<String, Integer> classSizes = new HashMap<String, Integer>();
+        for (DeviceTest test : suite) {
+            Integer size = classSizes.get(test.getClassName());
+            classSizes.put(test.getClassName(), size == null ? 1 : size + 1);
+        }
+        Map<String, List<DeviceTest>> classes = new LinkedHashMap<String, List<DeviceTest>>();
+        for (DeviceTest test : shard) {
+            List<DeviceTest> classTests = classes.get(test.getClassName());
+            if (classTests == null) {
+                classTests = new ArrayList<DeviceTest>();
+                classes.put(test.getClassName(), classTests);
+            }
+            classTests.add(test);
+        }
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, List<DeviceTest>> entry : classes.entrySet()) {
+            Integer classSize = classSizes.get(entry.getKey());
+            if (classSize != null && classSize == entry.getValue().size()) {
+                names.add(entry.getKey());
+            } else {
+                for (DeviceTest test : entry.getValue()) {
+                    names.add(test.toString());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static long weight(long estimate) {
+        return Math.max(1, estimate);
+    }
+
+    private ShardBalancer() {
+        // No instances.
+    }
+}
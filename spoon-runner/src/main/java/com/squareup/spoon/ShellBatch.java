@@ -0,0 +1,132 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.CollectingOutputReceiver;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs several shell commands on a device through a single ADB shell session instead of opening
+ * one session per command. A marker line after each command separates its output and exit code
+ * from those of the next one.
+ */
+final class ShellBatch {
+    private final String marker = "SPOON-" + UUID.randomUUID().toString();
+    private final List<String> commands = new ArrayList<String>();
+    private final List<Result> results = new ArrayList<Result>();
+    private boolean executed;
+
+    /** Queue {@code command}. Its result is filled in by {@link #execute(IDevice)}. */
+    Result add(String command) {
+        checkNotNull(command);
+        checkArgument(!executed, "Batch was already executed.");
+        commands.add(command);
+        Result result = new Result();
+        results.add(result);
+        return result;
+    }
+
+    boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /** Run every queued command, in order, in one shell session. */
+    void execute(IDevice device) throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
+        IOException {
+        if (commands.isEmpty()) { return; }
+        executed = true;
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        device.executeShellCommand(script(), receiver);
+        parse(receiver.getOutput());
+    }
+
+    /** The single command line running every queued command. */
+    String script() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < commands.size(); i++) {
+            // The extra echo ends the command's output on its own line, whatever it printed last.
+            script.append("{ ").append(commands.get(i)).append("; } 2>&1; r=$?; echo; echo ").append(marker).append(' ').append(i)
+                .append(" $r; ");
+        }
+        return script.toString();
+    }
+
+    /** Split the output of {@link #script()} back into the results of the individual commands. */
+    void parse(String output) {
+        int start = 0;
+        for (int i = 0; i < results.size(); i++) {
+            String prefix = marker + " " + i + " ";
+            int end = output.indexOf(prefix, start);
+            if (end == -1) {
+                // The session ended early. This and every later command did not finish.
+                return;
+            }
+            int lineEnd = output.indexOf('\n', end);
+            if (lineEnd == -1) {
+                lineEnd = output.length();
+            }
+            String status = output.substring(end + prefix.length(), lineEnd).trim();
+            results.get(i).complete(stripLastLineBreak(output.substring(start, end)), parseExitCode(status));
+            start = Math.min(lineEnd + 1, output.length());
+        }
+    }
+
+    private static String stripLastLineBreak(String output) {
+        if (output.endsWith("\r\n")) {
+            return output.substring(0, output.length() - 2);
+        }
+        if (output.endsWith("\n")) {
+            return output.substring(0, output.length() - 1);
+        }
+        return output;
+    }
+
+    private static int parseExitCode(String status) {
+        try {
+            return Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Output and exit code of a single command of a batch. */
+    static final class Result {
+        private boolean complete;
+        private String output;
+        private int exitCode = -1;
+
+        private void complete(String output, int exitCode) {
+            this.complete = true;
+            this.output = output;
+            this.exitCode = exitCode;
+        }
+
+        /** {@code true} if the command ran to completion. */
+        boolean isComplete() {
+            return complete;
+        }
+
+        /** Standard output and error of the command, or {@code null} if it did not complete. */
+        String getOutput() {
+            return output;
+        }
+
+        /** Exit code of the command, or {@code -1} if it did not complete. */
+        int getExitCode() {
+            return exitCode;
+        }
+
+        /** {@code true} if the command completed with exit code {@code 0}. */
+        boolean succeeded() {
+            return complete && exitCode == 0;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.squareup.spoon;
+
+import com.google.common.io.Files;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import org.apache.commons.io.IOUtils;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.squareup.spoon.SpoonUtils.GSON;
+
+/**
+ * Submits an execution to a running {@link SpoonDaemon} and streams back its output. Accepts the
+ * same arguments as {@link SpoonRunner}, optionally preceded by {@code --port}, and exits with the
+ * execution's exit code.
+ */
+public final class SpoonClient {
+    /** Submit {@code args} to the daemon on {@code port} and return the exit code. */
+    static int submit(int port, String[] args) throws IOException {
+        // Only readable by the user who started the daemon.
+        String token = Files.toString(SpoonDaemon.tokenFile(port), UTF_8).trim();
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+            String workingDirectory = System.getProperty("user.dir");
+            writer.write(GSON.toJson(new SpoonDaemon.Request(token, workingDirectory, args)) + "\n");
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SpoonDaemon.OUTPUT)) {
+                    System.out.println(line.substring(SpoonDaemon.OUTPUT.length()));
+                } else if (line.startsWith(SpoonDaemon.EXIT)) {
+                    return Integer.parseInt(line.substring(SpoonDaemon.EXIT.length()));
+                }
+            }
+            throw new IOException("Daemon closed the connection before the execution finished.");
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    public static void main(String... args) {
+        int port = SpoonDaemon.DEFAULT_PORT;
+        if (args.length >= 2 && "--port".equals(args[0])) {
+            port = Integer.parseInt(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        int exitCode;
+        try {
+            exitCode = submit(port, args);
+        } catch (IOException e) {
+            System.err.println("Unable to reach the Spoon daemon on port " + port + ": " + e.getMessage());
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    private SpoonClient() {
+        // No instances.
+    }
+}
@@ -0,0 +1,274 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.google.gson.JsonParseException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import org.apache.commons.io.IOUtils;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logError;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.GSON;
+import static com.squareup.spoon.SpoonUtils.createPrivateDirectory;
+import static com.squareup.spoon.SpoonUtils.ownerOnly;
+import static com.squareup.spoon.SpoonUtils.userDirectory;
+
+/**
+ * Long-lived process which keeps the ADB bridge, compiled templates and parsed APK metadata warm
+ * between executions. Executions are submitted by {@link SpoonClient} over a loopback socket and
+ * run one at a time.
+ * <p>
+ * The client sends a single line of JSON describing the execution. The daemon answers with lines
+ * starting with {@link #OUTPUT} for what the execution logs and finishes with one line starting
+ * with {@link #EXIT} followed by the exit code.
+ * <p>
+ * Executions must carry the token the daemon writes to {@link #tokenFile(int)} on startup, which
+ * only the user running the daemon can read. Other users of the machine can reach the port but
+ * not start executions.
+ */
+public final class SpoonDaemon {
+    static final int DEFAULT_PORT = 5040;
+    static final String OUTPUT = "O ";
+    static final String EXIT = "X ";
+    private static final int TOKEN_BYTES = 32;
+    /** Time a client has to send its request once connected. */
+    private static final int REQUEST_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+
+    private final File androidSdk;
+    private final int port;
+    private final Object executionLock = new Object();
+
+    SpoonDaemon(File androidSdk, int port) {
+        checkNotNull(androidSdk, "SDK is required.");
+        checkArgument(androidSdk.exists(), "SDK path does not exist.");
+        this.androidSdk = androidSdk.getAbsoluteFile();
+        this.port = port;
+    }
+
+    /** Connect to ADB and serve executions until the process is killed. */
+    void serve() throws IOException {
+        final String token = writeToken(tokenFile(port));
+        final AndroidDebugBridge adb = SpoonUtils.initAdb(androidSdk);
+        ServerSocket server = new ServerSocket(port, 0, InetAddress.getByName(null));
+        logInfo("Listening on %s.", server.getLocalSocketAddress());
+        try {
+            for (int client = 0; ; client++) {
+                final Socket socket = server.accept();
+                // A client which connects and stays silent must not keep others from being accepted.
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(adb, socket, token);
+                        } catch (IOException e) {
+                            logInfo("Unable to serve execution: %s", e.getMessage());
+                        } finally {
+                            IOUtils.closeQuietly(socket);
+                        }
+                    }
+                }, "spoon-daemon-client-" + client).start();
+            }
+        } finally {
+            IOUtils.closeQuietly(server);
+            AndroidDebugBridge.terminate();
+        }
+    }
+
+    /** File holding the token of the daemon on {@code port}, in the home directory of the user. */
+    static File tokenFile(int port) {
+        return new File(userDirectory(), "daemon-" + port + ".token");
+    }
+
+    /** Write a new random token to {@code file}, readable by the current user only. */
+    private static String writeToken(File file) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = BaseEncoding.base16().lowerCase().encode(bytes);
+
+        createPrivateDirectory(file.getParentFile());
+        // A new file, so nobody else can hold it open, restricted before the token goes in.
+        if (file.exists() && !file.delete()) { throw new IOException("Unable to replace " + file); }
+        if (!file.createNewFile()) { throw new IOException("Unable to create " + file); }
+        ownerOnly(file);
+        Files.write(token, file, UTF_8);
+        return token;
+    }
+
+    private void handle(AndroidDebugBridge adb, Socket socket, String token) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        String line = readRequestLine(new BufferedInputStream(socket.getInputStream()));
+        Request request;
+        try {
+            request = GSON.fromJson(line, Request.class);
+        } catch (JsonParseException e) {
+            request = null;
+        }
+
+        final Writer writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+        if (request == null || request.token == null
+            || !MessageDigest.isEqual(token.getBytes(UTF_8), request.token.getBytes(UTF_8))) {
+            logInfo("Rejected an execution without a valid token.");
+            writer.write(OUTPUT + "Invalid daemon token.\n" + EXIT + 1 + "\n");
+            writer.flush();
+            return;
+        }
+        if (request.args == null || request.workingDirectory == null) {
+            writer.write(OUTPUT + "Malformed execution request.\n" + EXIT + 1 + "\n");
+            writer.flush();
+            return;
+        }
+
+        // Executions run one at a time, so everything logged meanwhile belongs to this one.
+        int exitCode;
+        synchronized (executionLock) {
+            ClientSink client = new ClientSink(writer);
+            SpoonLogger.addSink(client);
+            try {
+                exitCode = execute(adb, request);
+            } finally {
+                SpoonLogger.removeSink(client);
+            }
+        }
+        writer.write(EXIT + exitCode + "\n");
+        writer.flush();
+    }
+
+    /** The first line sent by a client, which may be no longer than {@link #MAX_REQUEST_BYTES}. */
+    private static String readRequestLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() == MAX_REQUEST_BYTES) { throw new IOException("Execution request too long."); }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), UTF_8);
+    }
+
+    private int execute(AndroidDebugBridge adb, Request request) {
+        SpoonRunner.CommandLineArgs parsedArgs = new SpoonRunner.CommandLineArgs();
+        parsedArgs.sdk = androidSdk;
+        JCommander jc = new JCommander(parsedArgs);
+        try {
+            jc.parse(request.args);
+        } catch (ParameterException e) {
+            StringBuilder out = new StringBuilder(e.getLocalizedMessage()).append("\n\n");
+            jc.usage(out);
+            logError("%s", out);
+            return 1;
+        }
+        if (parsedArgs.help) {
+            StringBuilder out = new StringBuilder();
+            jc.usage(out);
+            logInfo("%s", out);
+            return 0;
+        }
+
+        // Paths are relative to the client, not to this process.
+        File workingDirectory = new File(request.workingDirectory);
+        parsedArgs.apk = resolve(workingDirectory, parsedArgs.apk);
+        parsedArgs.testApk = resolve(workingDirectory, parsedArgs.testApk);
+        parsedArgs.output = resolve(workingDirectory, parsedArgs.output);
+        parsedArgs.sdk = resolve(workingDirectory, parsedArgs.sdk);
+        parsedArgs.testDurations = resolve(workingDirectory, parsedArgs.testDurations);
+
+        try {
+            boolean success = SpoonRunner.fromArgs(parsedArgs).run(adb);
+            return !success && parsedArgs.failOnFailure ? 1 : 0;
+        } catch (Throwable e) {
+            logError("Execution failed: %s", Throwables.getStackTraceAsString(e));
+            return 1;
+        }
+    }
+
+    private static File resolve(File workingDirectory, File file) {
+        if (file == null || file.isAbsolute()) { return file; }
+        return new File(workingDirectory, file.getPath());
+    }
+
+    /** An execution submitted by a client. */
+    static final class Request {
+        String token;
+        String workingDirectory;
+        String[] args;
+
+        Request(String token, String workingDirectory, String[] args) {
+            this.token = token;
+            this.workingDirectory = workingDirectory;
+            this.args = args;
+        }
+    }
+
+    /** Sends every line logged to the client, prefixed with {@link #OUTPUT}. */
+    private static final class ClientSink implements SpoonLogger.Sink {
+        private final Writer client;
+        private boolean clientGone;
+
+        ClientSink(Writer client) {
+            this.client = client;
+        }
+
+        @Override
+        public synchronized void line(String line) {
+            if (clientGone) { return; }
+            try {
+                client.write(OUTPUT + line + "\n");
+                client.flush();
+            } catch (IOException e) {
+                // Keep executing for the local console even though nobody is listening anymore.
+                clientGone = true;
+            }
+        }
+    }
+
+    static class CommandLineArgs {
+        @Parameter(names = { "--sdk" }, description = "Path to Android SDK")
+        public File sdk = SpoonRunner.cleanFile(System.getenv("ANDROID_HOME"));
+
+        @Parameter(names = { "--port" }, description = "Loopback port to listen on")
+        public int port = DEFAULT_PORT;
+
+        @Parameter(names = { "-h", "--help" }, description = "Command help", help = true, hidden = true)
+        public boolean help;
+    }
+
+    public static void main(String... args) throws IOException {
+        CommandLineArgs parsedArgs = new CommandLineArgs();
+        JCommander jc = new JCommander(parsedArgs);
+
+        try {
+            jc.parse(args);
+        } catch (ParameterException e) {
+            StringBuilder out = new StringBuilder(e.getLocalizedMessage()).append("\n\n");
+            jc.usage(out);
+            System.err.println(out.toString());
+            System.exit(1);
+            return;
+        }
+        if (parsedArgs.help) {
+            jc.usage();
+            return;
+        }
+
+        new SpoonDaemon(parsedArgs.sdk, parsedArgs.port).serve();
+    }
+}
@@ -1,81 +1,67 @@
 package com.squareup.spoon;
 
-import static com.squareup.spoon.SpoonLogger.logDebug;
-
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.logcat.LogCatListener;
 import com.android.ddmlib.logcat.LogCatMessage;
-import com.android.ddmlib.logcat.LogCatReceiverTask;
 
 abstract class SpoonDeviceLogger implements LogCatListener {
-    private static final String TEST_RUNNER = "TestRunner";
-    private static final Pattern MESSAGE_START = Pattern.compile("started: ([^(]+)\\(([^)]+)\\)");
-    private static final Pattern MESSAGE_END = Pattern.compile("finished: [^(]+\\([^)]+\\)");
-
-    protected final List<LogCatMessage> messages;
-    private final LogCatReceiverTask logCatReceiverTask;
+    protected final LogSegmenter segmenter;
+    private final LogStore store;
+    private final LogcatReceiver logcatReceiver;
 
-    public SpoonDeviceLogger(IDevice device) {
-        messages = new ArrayList<LogCatMessage>();
-        logCatReceiverTask = new LogCatReceiverTask(device);
-        logCatReceiverTask.addLogCatListener(this);
+    /**
+     * @param storeFile
+     *            File the log of the tests is kept in, outside of the heap.
+     * @param filterSpecs
+     *            {@code TAG:PRIORITY} specs limiting the messages the device sends, or none.
+     * @param pidPackage
+     *            Package whose process the device limits messages to, where supported, or
+     *            {@code null}.
+     * @param binary
+     *            Receive the log in binary form if the device supports it.
+     */
+    public SpoonDeviceLogger(IDevice device, File storeFile, int apiLevel, List<String> filterSpecs, String pidPackage,
+        boolean binary) {
+        store = new LogStore(storeFile);
+        segmenter = new LogSegmenter(store);
+        logcatReceiver = new LogcatReceiver(device, apiLevel, filterSpecs, pidPackage, binary, this);
+    }
 
-        // Start a background thread to monitor the device logs. This will exit when we call stop
-        // below.
-        new Thread(logCatReceiverTask).start();
+    /**
+     * Start a background thread to monitor the device logs. This will exit when we call stop
+     * below. Not done by the constructor, so that subclasses are complete before messages arrive.
+     */
+    public void start() {
+        new Thread(logcatReceiver).start();
     }
 
     @Override
     public void log(List<LogCatMessage> msgList) {
-        synchronized (messages) {
-            messages.addAll(msgList);
-        }
+        segmenter.addAll(msgList);
     }
 
     public abstract void handleTestStarted();
 
     public abstract void handleTestFailure();
 
-    public Map<DeviceTest, List<LogCatMessage>> getParsedLogs() {
-        logCatReceiverTask.stop();
-
-        Map<DeviceTest, List<LogCatMessage>> logs = new HashMap<DeviceTest, List<LogCatMessage>>();
-        DeviceTest current = null;
-        String pid = null;
-        synchronized (messages) {
-            for (LogCatMessage message : messages) {
-                if (current == null) {
-                    Matcher match = MESSAGE_START.matcher(message.getMessage());
-                    if (match.matches() && TEST_RUNNER.equals(message.getTag())) {
-                        current = new DeviceTest(match.group(2), match.group(1));
-                        pid = message.getPid();
+    /** Have the device only send messages of the process running the current test. */
+    protected void refreshPid() {
+        logcatReceiver.refreshPid();
+    }
 
-                        List<LogCatMessage> deviceLogMessages = new ArrayList<LogCatMessage>();
-                        deviceLogMessages.add(message);
-                        logs.put(current, deviceLogMessages);
-                    }
-                } else {
-                    // Only log messages from the same PID.
-                    if (pid.equals(message.getPid())) {
-                        logs.get(current).add(message);
-                    }
+    /** Number of messages the device sent. */
+    public long getReceived() {
+        return logcatReceiver.getReceived();
+    }
 
-                    Matcher match = MESSAGE_END.matcher(message.getMessage());
-                    if (match.matches() && TEST_RUNNER.equals(message.getTag())) {
-                        current = null;
-                        pid = null;
-                    }
-                }
-            }
-        }
-        
-        return logs;
+    public Map<DeviceTest, TestLog> getParsedLogs() throws IOException {
+        logcatReceiver.stop();
+        store.close();
+        return segmenter.getLogs();
     }
 }
@@ -5,26 +5,41 @@ import static com.squareup.spoon.SpoonLogger.logError;
 import static com.squareup.spoon.SpoonLogger.logInfo;
 import static com.squareup.spoon.SpoonUtils.GSON;
 import static com.squareup.spoon.SpoonUtils.createAnimatedGif;
-import static com.squareup.spoon.SpoonUtils.obtainDirectoryFileEntry;
+import static com.squareup.spoon.SpoonUtils.moveDirectory;
 import static com.squareup.spoon.SpoonUtils.obtainRealDevice;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 
 import com.android.ddmlib.AndroidDebugBridge;
-import com.android.ddmlib.CollectingOutputReceiver;
 import com.android.ddmlib.FileListingService.FileEntry;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
@@ -35,24 +50,42 @@ import com.android.ddmlib.SyncService;
 import com.android.ddmlib.TimeoutException;
 import com.android.ddmlib.SyncService.ISyncProgressMonitor;
 import com.android.ddmlib.logcat.LogCatListener;
-import com.android.ddmlib.logcat.LogCatMessage;
 import com.android.ddmlib.testrunner.IRemoteAndroidTestRunner;
+import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
+import com.android.ddmlib.testrunner.TestIdentifier;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.squareup.spoon.adapters.TestIdentifierAdapter;
 
 /** Represents a single device and the test configuration to be executed. */
 public final class SpoonDeviceRunner {
     private static final String FILE_EXECUTION = "execution.json";
-    private static final String FILE_RESULT = "result.json";
     static final String TEMP_DIR = "work";
     static final String JUNIT_DIR = "junit-reports";
     static final String IMAGE_DIR = "image";
     static final String DATA_DIR = "data";
+    /** Log stores of the devices, kept until the report is rendered. */
+    static final String LOG_STORE_DIR = "log-store";
 
     static final String SPOON_SCREENSHOTS = "SPOON_SCREENSHOTS";
+    static final String APP_DATA = "data";
+    /** Test output directory on the device, relative to its external storage. */
+    static final String DEVICE_OUTPUT_DIR = "lumosity_test_data";
+    /** Instrumentation argument naming the directory the client library writes test output to. */
+    static final String ARTIFACT_DIRECTORY_ARG = "spoonArtifactDirectory";
+    /**
+     * Longest list of test names passed to one instrumentation. Older devices limit a whole ADB
+     * command to 4 KB.
+     */
+    static final int MAX_TEST_NAMES_LENGTH = 3 * 1024;
+    /** Output directories of runs which started longer ago are left over from crashed runs. */
+    private static final long STALE_ARTIFACTS_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    private static final Pattern ARTIFACT_NAME = Pattern.compile("spoon-\\d+-[0-9a-f-]+");
 
     private final File sdk;
     private final File apk;
@@ -68,9 +101,28 @@ public final class SpoonDeviceRunner {
     private final File junitReport;
     private final File imageDir;
     private final File dataDir;
+    private final File logStore;
     private final String classpath;
     private final SpoonInstrumentationInfo instrumentationInfo;
     private boolean disableLogging;
+    private final int shardIndex;
+    private final int numShards;
+    private final List<String> shardTestNames;
+    private final boolean forceInstall;
+    private final TransferScheduler transfers;
+    private final boolean prepareDevice;
+    private final int pullConnections;
+    private final boolean archivePulls;
+    private final int logBufferSize;
+    private final List<String> logcatFilters;
+    private final boolean logcatPid;
+    private final boolean logcatBinary;
+    /** Channel to the parent process when running as a child, otherwise {@code null}. */
+    private transient DeviceEventListener events;
+    /** Milliseconds this process took to start when running as a child, otherwise {@code 0}. */
+    private transient long processStartup;
+    /** State to put back on the device once the tests ran, or {@code null}. */
+    private transient DevicePreparation devicePreparation;
 
     /**
      * Create a test runner for a single device.
@@ -98,10 +150,39 @@ public final class SpoonDeviceRunner {
      * @param methodName
      *            Test method name to run or {@code null} to run all tests. Must also pass
      *            {@code className}.
+     * @param shardIndex
+     *            Zero-based index of the slice of the suite to run. Ignored unless {@code numShards}
+     *            is positive.
+     * @param numShards
+     *            Number of slices the suite is split into, or {@code 0} to run the whole suite.
+     * @param shardTestNames
+     *            Classes and {@code class#method} tests making up this device's slice, or
+     *            {@code null} to let the instrumentation pick the slice from {@code shardIndex} and
+     *            {@code numShards}.
+     * @param forceInstall
+     *            Install the APKs even if the device already has identical ones.
+     * @param transfers
+     *            Limits the installs and pulls running at the same time on this device's bus.
+     * @param prepareDevice
+     *            Wake and unlock the device and turn off system animations before running tests.
+     * @param pullConnections
+     *            Number of sync connections over which test output is pulled from the device at once.
+     * @param archivePulls
+     *            Pack test output into an archive on the device and pull that instead of each file.
+     * @param logBufferSize
+     *            Number of log messages kept while a test runs, for the log of a failed test.
+     * @param logcatFilters
+     *            Logcat {@code TAG:PRIORITY} specs limiting the messages the device sends, or none.
+     * @param logcatPid
+     *            Have the device only send messages of the process running the tests, if it can.
+     * @param logcatBinary
+     *            Receive the device log in binary form, if the device supports it.
      */
     SpoonDeviceRunner(File sdk, File apk, File testApk, File output, String serial, boolean debug, boolean noAnimations, int adbTimeout,
         String classpath, SpoonInstrumentationInfo instrumentationInfo, String className, String methodName,
-        IRemoteAndroidTestRunner.TestSize testSize, boolean disableLogging) {
+        IRemoteAndroidTestRunner.TestSize testSize, boolean disableLogging, int shardIndex, int numShards, List<String> shardTestNames,
+        boolean forceInstall, TransferScheduler transfers, boolean prepareDevice, int pullConnections,
+        boolean archivePulls, int logBufferSize, List<String> logcatFilters, boolean logcatPid, boolean logcatBinary) {
         this.sdk = sdk;
         this.apk = apk;
         this.testApk = testApk;
@@ -115,17 +196,43 @@ public final class SpoonDeviceRunner {
         this.classpath = classpath;
         this.instrumentationInfo = instrumentationInfo;
         this.disableLogging = disableLogging;
+        this.shardIndex = shardIndex;
+        this.numShards = numShards;
+        this.shardTestNames = shardTestNames;
+        this.forceInstall = forceInstall;
+        this.transfers = transfers;
+        this.prepareDevice = prepareDevice;
+        this.pullConnections = pullConnections;
+        this.archivePulls = archivePulls;
+        this.logBufferSize = logBufferSize;
+        this.logcatFilters = logcatFilters;
+        this.logcatPid = logcatPid;
+        this.logcatBinary = logcatBinary;
 
         serial = SpoonUtils.sanitizeSerial(serial);
         this.work = FileUtils.getFile(output, TEMP_DIR, serial);
         this.junitReport = FileUtils.getFile(output, JUNIT_DIR, serial + ".xml");
         this.imageDir = FileUtils.getFile(output, IMAGE_DIR, serial);
         this.dataDir = FileUtils.getFile(output, DATA_DIR, serial);
+        this.logStore = FileUtils.getFile(output, LOG_STORE_DIR, serial + ".log");
 
     }
 
-    /** Serialize to disk and start {@link #main(String...)} in another process. */
+    /**
+     * Serialize to disk and start {@link #main(String...)} in another process. The result is
+     * assembled from the {@link DeviceEvent}s which the process streams on its standard output.
+     */
     public DeviceResult runInNewProcess() throws IOException, InterruptedException {
+        return runInNewProcess(null);
+    }
+
+    /**
+     * Like {@link #runInNewProcess()}, starting the process from a class data sharing archive.
+     *
+     * @param classDataSharing
+     *            Archive to start from, or {@code null} to start without one.
+     */
+    DeviceResult runInNewProcess(ClassDataSharing classDataSharing) throws IOException, InterruptedException {
         logDebug(debug, "[%s]", serial);
 
         // Create the output directory.
@@ -138,33 +245,96 @@ public final class SpoonDeviceRunner {
 
         // Kick off a new process to interface with ADB and perform the real execution.
         String name = SpoonDeviceRunner.class.getName();
-        Process process = new ProcessBuilder("java", "-Djava.awt.headless=true", "-cp", classpath, name, work.getAbsolutePath()).start();
-        printStream(process.getInputStream(), "STDOUT");
-        printStream(process.getErrorStream(), "STDERR");
+        List<String> command = new ArrayList<String>();
+        command.add("java");
+        ClassDataSharing.Launch launch = null;
+        if (classDataSharing != null) {
+            launch = classDataSharing.launch();
+            command.addAll(launch.getJvmArguments());
+        }
+        Collections.addAll(command, "-Djava.awt.headless=true", "-cp", classpath, name, work.getAbsolutePath());
+        final Process process = new ProcessBuilder(command).start();
+
+        // Drain the console output on its own thread so a full pipe cannot stall the process.
+        Thread stderr = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    printStream(process.getErrorStream(), "STDERR");
+                } catch (IOException e) {
+                    logDebug(debug, "[%s] Unable to read STDERR: %s", serial, e.getMessage());
+                }
+            }
+        }, "spoon-stderr-" + serial);
+        stderr.start();
+
+        DeviceEventAggregator aggregator = new DeviceEventAggregator(serial, debug);
+        DataInputStream stdout = new DataInputStream(process.getInputStream());
+        try {
+            DeviceEvent event;
+            while ((event = DeviceEvent.readFrom(stdout)) != null) {
+                aggregator.accept(event);
+            }
+        } catch (IOException e) {
+            logInfo("[%s] Lost the event stream: %s", serial, e.getMessage());
+            aggregator.streamLost(e.getMessage());
+            // Keep reading so a full pipe cannot stall the process.
+            try {
+                ByteStreams.copy(stdout, ByteStreams.nullOutputStream());
+            } catch (IOException ignored) {
+            }
+        } finally {
+            IOUtils.closeQuietly(stdout);
+        }
 
         final int exitCode = process.waitFor();
+        stderr.join();
+        if (launch != null) {
+            launch.finished(exitCode);
+        }
         logDebug(debug, "Process.waitFor() finished for [%s] with exitCode %d", serial, exitCode);
 
-        // Read the result from a file in the output directory.
-        FileReader resultFile = new FileReader(new File(work, FILE_RESULT));
-        DeviceResult result = GSON.fromJson(resultFile, DeviceResult.class);
-        resultFile.close();
-
-        return result;
+        return aggregator.getResult(exitCode);
     }
 
     private void printStream(InputStream stream, String tag) throws IOException {
-        BufferedReader stdout = new BufferedReader(new InputStreamReader(stream));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
         String s;
-        while ((s = stdout.readLine()) != null) {
+        while ((s = reader.readLine()) != null) {
             logDebug(debug, "[%s] %s %s", serial, tag, s);
         }
     }
 
     /** Execute instrumentation on the target device and return a result summary. */
     public DeviceResult run(AndroidDebugBridge adb) {
+        return run(adb, null);
+    }
+
+    /**
+     * Execute instrumentation on the target device and return a result summary. A prepared device
+     * is put back into its previous state afterwards.
+     * 
+     * @param workQueue
+     *            Queue to keep pulling tests from until it is drained, or {@code null} to run the
+     *            whole suite in a single instrumentation run.
+     */
+    DeviceResult run(AndroidDebugBridge adb, SpoonWorkQueue workQueue) {
+        try {
+            return runOnDevice(adb, workQueue);
+        } finally {
+            if (devicePreparation != null) {
+                try {
+                    devicePreparation.restore();
+                } catch (Exception e) {
+                    logInfo("[%s] Unable to restore device: %s", serial, e.getMessage());
+                }
+                devicePreparation = null;
+            }
+        }
+    }
+
+    private DeviceResult runOnDevice(AndroidDebugBridge adb, SpoonWorkQueue workQueue) {
         String appPackage = instrumentationInfo.getApplicationPackage();
-        String testPackage = instrumentationInfo.getInstrumentationPackage();
         String testRunner = instrumentationInfo.getTestRunnerClass();
         TestIdentifierAdapter testIdentifierAdapter = TestIdentifierAdapter.fromTestRunner(testRunner);
 
@@ -175,31 +345,54 @@ public final class SpoonDeviceRunner {
         }
 
         DeviceResult.Builder result = new DeviceResult.Builder();
+        if (processStartup > 0) {
+            result.setProcessStartup(processStartup);
+        }
+        if (numShards > 0) {
+            result.setShard(shardIndex, numShards);
+        }
 
         IDevice device = obtainRealDevice(adb, serial);
         logDebug(debug, "Got realDevice for [%s]", serial);
 
+        // Read what is needed from the device, and prepare it, in a single shell session.
+        ShellBatch preparation = new ShellBatch();
+        ShellBatch.Result properties = preparation.add("getprop");
+        ShellBatch.Result storage = preparation.add("echo $EXTERNAL_STORAGE");
+        // Every run writes its output to a new directory.
+        ShellBatch.Result artifacts = preparation.add(artifactDirectoryCommand("$EXTERNAL_STORAGE/" + DEVICE_OUTPUT_DIR,
+            UUID.randomUUID().toString()));
+        if (prepareDevice) {
+            devicePreparation = new DevicePreparation(device, preparation);
+        }
+        try {
+            preparation.execute(device);
+        } catch (Exception e) {
+            logInfo("[%s] Unable to prepare device: %s", serial, e.getMessage());
+        }
+        // Get external storage directory (fix for Lollipop devices)
+        String externalStorageDirectory = storage.isComplete() ? storage.getOutput().trim() : "";
+        String sharedOutputDirectory = externalStorageDirectory + "/" + DEVICE_OUTPUT_DIR;
+        String outputDirectory = sharedOutputDirectory;
+        String artifactDirectory = null;
+        String artifactName = artifacts.succeeded() ? lastLine(artifacts.getOutput()) : "";
+        if (ARTIFACT_NAME.matcher(artifactName).matches()) {
+            artifactDirectory = outputDirectory + "/" + artifactName;
+            outputDirectory = artifactDirectory;
+        } else {
+            logInfo("[%s] Unable to create a test output directory, sharing %s with earlier runs.", serial, outputDirectory);
+        }
+
         // Get relevant device information.
-        final DeviceDetails deviceDetails = DeviceDetails.createForDevice(device);
+        final DeviceDetails deviceDetails = DeviceDetails.createForDevice(device,
+            properties.isComplete() ? DeviceUtils.parseProperties(properties.getOutput()) : Collections.<String, String>emptyMap());
         result.setDeviceDetails(deviceDetails);
         logDebug(debug, "[%s] setDeviceDetails %s", serial, deviceDetails);
 
-        try {
-            // Now install the main application and the instrumentation application.
-            String installError = device.installPackage(apk.getAbsolutePath(), true);
-            if (installError != null) {
-                logInfo("[%s] app apk install failed.  Error [%s]", serial, installError);
-                return result.markInstallAsFailed("Unable to install application APK.").build();
-            }
-            installError = device.installPackage(testApk.getAbsolutePath(), true);
-            if (installError != null) {
-                logInfo("[%s] test apk install failed.  Error [%s]", serial, installError);
-                return result.markInstallAsFailed("Unable to install instrumentation APK.").build();
-            }
-        } catch (InstallException e) {
-            logInfo("InstallException on device [%s]", serial);
-            e.printStackTrace(System.out);
-            return result.markInstallAsFailed(e.getMessage()).build();
+        // Now install the main application and the instrumentation application.
+        String installFailure = installApks(device, result);
+        if (installFailure != null) {
+            return result.markInstallAsFailed(installFailure).build();
         }
 
         // Create the output directory, if it does not already exist.
@@ -213,164 +406,470 @@ public final class SpoonDeviceRunner {
         // }
 
         // If this is Android Marshmallow or above grant WRITE_EXTERNAL_STORAGE
-        if (Integer.parseInt(device.getProperty(IDevice.PROP_BUILD_API_LEVEL)) >= 23) {
+        if (deviceDetails.getApiLevel() >= 23) {
             try {
-                CollectingOutputReceiver grantOutputReceiver = new CollectingOutputReceiver();
-                device.executeShellCommand("pm grant " + appPackage + " android.permission.READ_EXTERNAL_STORAGE", grantOutputReceiver);
-                device.executeShellCommand("pm grant " + appPackage + " android.permission.WRITE_EXTERNAL_STORAGE", grantOutputReceiver);
+                ShellBatch grants = new ShellBatch();
+                grants.add("pm grant " + appPackage + " android.permission.READ_EXTERNAL_STORAGE");
+                grants.add("pm grant " + appPackage + " android.permission.WRITE_EXTERNAL_STORAGE");
+                grants.execute(device);
             } catch (Exception e) {
-                logInfo("Exception while granting external storage access to application apk" + "on device [%s]", serial);
-                e.printStackTrace(System.out);
+                logInfo("Exception while granting external storage access to application apk on device [%s]: %s", serial,
+                    e.getMessage());
+                logDebug(debug, "%s", Throwables.getStackTraceAsString(e));
                 return result.markInstallAsFailed("Unable to grant external storage access to" + " application APK.").build();
             }
         }
         
         
-        SpoonDeviceLogger deviceLogger = new LumosFailureDeviceLogger(device);
-        // Run all the tests! o/
+        // Screenshots are pulled after each test while the next one runs.
+        String screenshotDevicePath = outputDirectory + "/" + SPOON_SCREENSHOTS;
+        File screenshotDir = new File(work, SPOON_SCREENSHOTS);
+        PullEngine pulls = new PullEngine(device, serial, deviceDetails.getApiLevel(), debug, transfers, pullConnections,
+            archivePulls);
         try {
-            logDebug(debug, "About to actually run tests for [%s]", serial);
-            RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(testPackage, testRunner, device);
-            runner.setMaxtimeToOutputResponse(adbTimeout);
-            if (!Strings.isNullOrEmpty(className)) {
-                if (Strings.isNullOrEmpty(methodName)) {
-                    runner.setClassName(className);
-                } else {
-                    runner.setMethodName(className, methodName);
+            ScreenshotCollector screenshotCollector = new ScreenshotCollector(pulls, serial, debug, screenshotDevicePath, screenshotDir,
+                result);
+
+            LumosFailureDeviceLogger deviceLogger = new LumosFailureDeviceLogger(device, logStore, deviceDetails.getApiLevel(), logcatFilters,
+                logcatPid ? appPackage : null, logcatBinary, logBufferSize);
+            deviceLogger.start();
+            List<List<String>> batches = shardTestNames != null ? batches(shardTestNames) : null;
+            if (shardTestNames != null && shardTestNames.isEmpty()) {
+                // An empty list of classes would run the whole suite.
+                logInfo("[%s] No tests were assigned to this shard.", serial);
+            } else if (workQueue == null && batches != null && batches.size() > 1) {
+                runBatches(device, batches, result, testIdentifierAdapter, deviceLogger, screenshotCollector, artifactDirectory);
+            } else if (workQueue == null) {
+                // Run all the tests! o/
+                try {
+                    logDebug(debug, "About to actually run tests for [%s]", serial);
+                    RemoteAndroidTestRunner runner = createTestRunner(device, artifactDirectory);
+                    if (shardTestNames != null) {
+                        runner.setClassNames(shardTestNames.toArray(new String[shardTestNames.size()]));
+                    }
+                    runner.run(listeners(new SpoonTestRunListener(result, debug, testIdentifierAdapter, deviceLogger, screenshotCollector),
+                        new XmlTestRunListener(junitReport)));
+                } catch (Exception e) {
+                    result.addException(e);
+                }
+            } else {
+                runWorkQueue(device, workQueue, result, testIdentifierAdapter, deviceLogger, screenshotCollector, artifactDirectory);
+            }
+
+            if (!disableLogging && deviceLogger != null) {
+                // Grab all the parsed logs and map them to individual tests.
+                try {
+                    Map<DeviceTest, TestLog> logs = deviceLogger.getParsedLogs();
+                    long kept = 0;
+                    for (Map.Entry<DeviceTest, TestLog> entry : logs.entrySet()) {
+                        DeviceTestResult.Builder builder = result.getMethodResultBuilder(entry.getKey());
+                        if (builder != null) {
+                            builder.setLog(entry.getValue());
+                            kept += entry.getValue().size();
+                        }
+                    }
+                    result.setLogLines(deviceLogger.getReceived(), kept);
+                    logDebug(debug, "grabbed %d test logs from [%s], %d messages overflowed the buffer", logs.size(), serial,
+                        deviceLogger.getOverflow());
+                } catch (IOException e) {
+                    result.addException(e);
+                }
+            } else {
+                logDebug(debug, "We are not grabbing any logs from the devices.", serial);
+            }
+
+            try {
+                logDebug(debug, "About to grab screenshots and prepare output for [%s]", serial);
+
+                // Sync device screenshots, if any, to the local filesystem. Normally only those of the
+                // last test are still on their way.
+                if (!screenshotCollector.finish()) {
+                    logDebug(debug, "Pulling screenshots from [%s] %s", serial, screenshotDevicePath);
+                    FileUtils.deleteDirectory(screenshotDir);
+                    result.addTransfer(pulls.pull(screenshotDevicePath, screenshotDir));
+                }
+
+                logDebug(debug, "Done pulling screenshots from [%s] %s", serial, screenshotDevicePath);
+
+                if (artifactDirectory != null) {
+                    // A client which did not receive the run's directory wrote to the shared one.
+                    String legacyDevicePath = sharedOutputDirectory + "/" + SPOON_SCREENSHOTS;
+                    File legacyDir = new File(work, "legacy-" + SPOON_SCREENSHOTS);
+                    DeviceTransfer legacy = pulls.pull(legacyDevicePath, legacyDir);
+                    if (legacyDir.exists()) {
+                        logInfo("[%s] Pulled screenshots from %s, the client did not write to %s.", serial, legacyDevicePath,
+                            artifactDirectory);
+                        result.addTransfer(legacy);
+                        moveDirectory(legacyDir, screenshotDir);
+                        // Not to be pulled again by the next run.
+                        removeFromDevice(device, legacyDevicePath);
+                    }
+                }
+
+                if (screenshotDir.exists()) {
+                    imageDir.mkdirs();
+
+                    // Move all children of the screenshot directory into the image folder.
+                    File[] classNameDirs = screenshotDir.listFiles();
+                    if (classNameDirs != null) {
+                        // Multimap<DeviceTest, File> testScreenshots = ArrayListMultimap.create();
+                        for (File classNameDir : classNameDirs) {
+                            String className = classNameDir.getName();
+                            File destDir = new File(imageDir, className);
+                            moveDirectory(classNameDir, destDir);
+                            if (events != null) {
+                                for (File screenshot : FileUtils.listFiles(destDir, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE)) {
+                                    String testName = screenshot.getParentFile().getName();
+                                    events.send(DeviceEvent.screenshot(new DeviceTest(className, testName), screenshot));
+                                }
+                            }
+                            logDebug(debug, "Moved from device [%s] ... %s to %s", serial, classNameDir.getAbsolutePath(),
+                                destDir.getAbsolutePath());
+
+                            // // Get a sorted list of all screenshots from the device run.
+                            // List<File> screenshots = new ArrayList<File>(FileUtils.listFiles(destDir,
+                            // TrueFileFilter.INSTANCE,
+                            // TrueFileFilter.INSTANCE));
+                            // Collections.sort(screenshots);
+                            //
+                            // // Iterate over each screenshot and associate it with its corresponding
+                            // // method result.
+                            // for (File screenshot : screenshots) {
+                            // String methodName = screenshot.getParentFile().getName();
+                            //
+                            // DeviceTest testIdentifier = new DeviceTest(className, methodName);
+                            // DeviceTestResult.Builder builder =
+                            // result.getMethodResultBuilder(testIdentifier);
+                            // if (builder != null) {
+                            // builder.addScreenshot(screenshot);
+                            // testScreenshots.put(testIdentifier, screenshot);
+                            // } else {
+                            // logError("Unable to find test for %s", testIdentifier);
+                            // }
+                            // }
+                        }
+
+                        // Don't generate animations if the switch is present
+                        // if (!noAnimations) {
+                        // // Make animated GIFs for all the tests which have screenshots.
+                        // for (DeviceTest deviceTest : testScreenshots.keySet()) {
+                        // List<File> screenshots = new
+                        // ArrayList<File>(testScreenshots.get(deviceTest));
+                        // if (screenshots.size() == 1) {
+                        // continue; // Do not make an animated GIF if there is only one
+                        // // screenshot.
+                        // }
+                        // File animatedGif = FileUtils.getFile(imageDir, deviceTest.getClassName(),
+                        // deviceTest.getMethodName() + ".gif");
+                        // createAnimatedGif(screenshots, animatedGif);
+                        // result.getMethodResultBuilder(deviceTest).setAnimatedGif(animatedGif);
+                        // }
+                        // }
+                    }
+                    FileUtils.deleteDirectory(screenshotDir);
                 }
+            } catch (Exception e) {
+                logDebug(debug, "EXCEPTION with pulling and manipulating screenshots on [%s]", serial);
+
+                result.addException(e);
+            }
+
+            logDebug(debug, "DONE doing screenshot stuff on [%s]", serial);
+
+            // TODO can eventuall just remove this, as our screenshot tool does not use this data
+            if (false) {
+                addAppDataToResult(result, pulls, outputDirectory);
             }
-            if (testSize != null) {
-                runner.setTestSize(testSize);
+            if (artifactDirectory != null) {
+                removeFromDevice(device, artifactDirectory);
             }
-            runner.run(new SpoonTestRunListener(result, debug, testIdentifierAdapter, deviceLogger), new XmlTestRunListener(junitReport));
+            return result.build();
+        } finally {
+            // Release the sync connections and pull threads even if the run failed.
+            pulls.close();
+        }
+    }
+
+    /**
+     * Shell command creating the output directory of a run below {@code parent} and printing its
+     * name, which starts with the time on the device. Directories of runs which started over a day
+     * ago are deleted, those of runs which may still be in progress on the device are left alone.
+     */
+    static String artifactDirectoryCommand(String parent, String id) {
+        return "now=$(date +%s); for d in " + parent + "/spoon-*; do t=${d##*/spoon-}; t=${t%%-*}; [ \"$t\" -lt $((now - "
+            + STALE_ARTIFACTS_SECONDS + ")) ] 2>/dev/null && rm -rf \"$d\"; done; d=" + parent + "/spoon-$now-" + id + "; mkdir -p $d/"
+            + SPOON_SCREENSHOTS + " $d/" + APP_DATA + " && echo ${d##*/}";
+    }
+
+    private static String lastLine(String output) {
+        String trimmed = output.trim();
+        return trimmed.substring(trimmed.lastIndexOf('\n') + 1).trim();
+    }
+
+    private void removeFromDevice(IDevice device, String path) {
+        ShellBatch cleanup = new ShellBatch();
+        cleanup.add("rm -rf '" + path + "'");
+        try {
+            cleanup.execute(device);
         } catch (Exception e) {
-            result.addException(e);
+            logDebug(debug, "[%s] Unable to delete %s: %s", serial, path, e.getMessage());
         }
+    }
 
-        if (!disableLogging && deviceLogger != null) {
-            // Grab all the parsed logs and map them to individual tests.
-            Map<DeviceTest, List<LogCatMessage>> logs = deviceLogger.getParsedLogs();
-            for (Map.Entry<DeviceTest, List<LogCatMessage>> entry : logs.entrySet()) {
-                DeviceTestResult.Builder builder = result.getMethodResultBuilder(entry.getKey());
-                if (builder != null) {
-                    builder.setLog(entry.getValue());
+    /** Keep running units of work from {@code workQueue} until it is drained. */
+    private void runWorkQueue(IDevice device, SpoonWorkQueue workQueue, DeviceResult.Builder result,
+        TestIdentifierAdapter testIdentifierAdapter, SpoonDeviceLogger deviceLogger, ScreenshotCollector screenshotCollector,
+        String artifactDirectory) {
+        result.startTests();
+        SpoonWorkQueue.WorkUnit unit;
+        while ((unit = workQueue.poll()) != null) {
+            logDebug(debug, "[%s] Running %s (%d remaining)", serial, unit, workQueue.size());
+            try {
+                RemoteAndroidTestRunner runner = createTestRunner(device, artifactDirectory);
+                unit.applyTo(runner);
+                File unitReport = new File(junitReport.getParentFile(), FilenameUtils.removeExtension(junitReport.getName()) + "-"
+                    + unit + ".xml");
+                runner.run(listeners(new SpoonTestRunListener(result, debug, testIdentifierAdapter, deviceLogger, true,
+                    screenshotCollector),
+                    new XmlTestRunListener(unitReport)));
+            } catch (Exception e) {
+                // The device is likely unusable now. Give the unit back to the others and stop.
+                if (workQueue.requeue(unit)) {
+                    logInfo("[%s] Unable to run %s, returning it to the queue.", serial, unit);
+                } else {
+                    logInfo("[%s] Unable to run %s, giving up after %d devices failed it.", serial, unit,
+                        SpoonWorkQueue.MAX_ATTEMPTS);
+                    workQueue.recordNotRun(unit, result, "Not run: " + SpoonWorkQueue.MAX_ATTEMPTS
+                        + " devices failed to run " + unit + ". Last error: " + e);
                 }
+                result.addException(e);
+                break;
             }
-            logDebug(debug, "grabbed %d test logs from [%s]", logs.size(), serial);
-        } else {
-            logDebug(debug, "We are not grabbing any logs from the devices.", serial);
         }
+        result.endTests();
+    }
 
-        try {
-            logDebug(debug, "About to grab screenshots and prepare output for [%s]", serial);
+    /**
+     * Split {@code testNames} into lists short enough to pass to a single instrumentation, whose
+     * command line is limited in length.
+     */
+    static List<List<String>> batches(List<String> testNames) {
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<String> batch = new ArrayList<String>();
+        int length = 0;
+        for (String testName : testNames) {
+            if (!batch.isEmpty() && length + 1 + testName.length() > MAX_TEST_NAMES_LENGTH) {
+                batches.add(batch);
+                batch = new ArrayList<String>();
+                length = 0;
+            }
+            length += (batch.isEmpty() ? 0 : 1) + testName.length();
+            batch.add(testName);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
 
-            // Sync device screenshots, if any, to the local filesystem.
-            String dirName = SPOON_SCREENSHOTS;
-            String localDirName = work.getAbsolutePath();
+    /** Run a slice of the suite too long for one instrumentation as several, one after the other. */
+    private void runBatches(IDevice device, List<List<String>> batches, DeviceResult.Builder result,
+        TestIdentifierAdapter testIdentifierAdapter, SpoonDeviceLogger deviceLogger, ScreenshotCollector screenshotCollector,
+        String artifactDirectory) {
+        logDebug(debug, "[%s] Running %d batches of tests.", serial, batches.size());
+        result.startTests();
+        for (int i = 0; i < batches.size(); i++) {
+            List<String> batch = batches.get(i);
+            try {
+                RemoteAndroidTestRunner runner = createTestRunner(device, artifactDirectory);
+                runner.setClassNames(batch.toArray(new String[batch.size()]));
+                File batchReport = new File(junitReport.getParentFile(), FilenameUtils.removeExtension(junitReport.getName()) + "-"
+                    + (i + 1) + ".xml");
+                runner.run(listeners(new SpoonTestRunListener(result, debug, testIdentifierAdapter, deviceLogger, true,
+                    screenshotCollector),
+                    new XmlTestRunListener(batchReport)));
+            } catch (Exception e) {
+                result.addException(e);
+                break;
+            }
+        }
+        result.endTests();
+    }
 
-            // Get external storage directory (fix for Lollipop devices)
-            String externalStorageDirectory = getExternalStorageDir(device);
-            final String devicePath = externalStorageDirectory + "/lumosity_test_data/" + dirName;
+    /** Add the listener streaming events to the parent process, if there is one. */
+    private List<ITestRunListener> listeners(ITestRunListener... listeners) {
+        List<ITestRunListener> all = new ArrayList<ITestRunListener>(Arrays.asList(listeners));
+        if (events != null) {
+            all.add(events);
+        }
+        return all;
+    }
 
-            FileEntry deviceDir = obtainDirectoryFileEntry(devicePath);
-            logDebug(debug, "Pulling screenshots from [%s] %s", serial, devicePath);
+    /**
+     * Create an instrumentation runner honoring the configured class, method, and size filters.
+     *
+     * @param artifactDirectory
+     *            Directory on the device for the client library to write test output to, or
+     *            {@code null} to let it manage its own.
+     */
+    private RemoteAndroidTestRunner createTestRunner(IDevice device, String artifactDirectory) {
+        RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(instrumentationInfo.getInstrumentationPackage(),
+            instrumentationInfo.getTestRunnerClass(), device);
+        runner.setMaxtimeToOutputResponse(adbTimeout);
+        if (artifactDirectory != null) {
+            runner.addInstrumentationArg(ARTIFACT_DIRECTORY_ARG, artifactDirectory);
+        }
+        if (!Strings.isNullOrEmpty(className)) {
+            if (Strings.isNullOrEmpty(methodName)) {
+                runner.setClassName(className);
+            } else {
+                runner.setMethodName(className, methodName);
+            }
+        }
+        if (testSize != null) {
+            runner.setTestSize(testSize);
+        }
+        if (shardTestNames == null && numShards > 0) {
+            // Let the instrumentation pick the disjoint slice of the suite for this device.
+            runner.addInstrumentationArg("numShards", Integer.toString(numShards));
+            runner.addInstrumentationArg("shardIndex", Integer.toString(shardIndex));
+        }
+        return runner;
+    }
 
-            device.getSyncService().pull(new FileEntry[] { deviceDir }, localDirName, SyncService.getNullProgressMonitor());
+    /**
+     * Install the APKs and list the tests of the suite without executing them.
+     * 
+     * @return the tests in the order in which the instrumentation reported them.
+     */
+    List<DeviceTest> collectTests(AndroidDebugBridge adb) {
+        IDevice device = obtainRealDevice(adb, serial);
+        String installFailure = installApks(device, new DeviceResult.Builder());
+        if (installFailure != null) {
+            throw new RuntimeException("Unable to list tests on " + serial + ": " + installFailure);
+        }
 
-            logDebug(debug, "Done pulling screenshots from [%s] %s", serial, devicePath);
+        final List<DeviceTest> tests = new ArrayList<DeviceTest>();
+        final List<String> failures = new ArrayList<String>();
+        RemoteAndroidTestRunner runner = createTestRunner(device, null);
+        runner.setLogOnly(true);
+        try {
+            runner.run(new ITestRunListener() {
+                @Override
+                public void testRunStarted(String runName, int testCount) {
+                }
 
-            File screenshotDir = new File(work, dirName);
-            if (screenshotDir.exists()) {
-                imageDir.mkdirs();
+                @Override
+                public void testStarted(TestIdentifier test) {
+                }
 
-                // Move all children of the screenshot directory into the image folder.
-                File[] classNameDirs = screenshotDir.listFiles();
-                if (classNameDirs != null) {
-                    // Multimap<DeviceTest, File> testScreenshots = ArrayListMultimap.create();
-                    for (File classNameDir : classNameDirs) {
-                        String className = classNameDir.getName();
-                        File destDir = new File(imageDir, className);
-                        FileUtils.copyDirectory(classNameDir, destDir);
-                        logDebug(debug, "Copying from device [%s] ... %s to %s", serial, classNameDir.getAbsolutePath(),
-                            destDir.getAbsolutePath());
-
-                        // // Get a sorted list of all screenshots from the device run.
-                        // List<File> screenshots = new ArrayList<File>(FileUtils.listFiles(destDir,
-                        // TrueFileFilter.INSTANCE,
-                        // TrueFileFilter.INSTANCE));
-                        // Collections.sort(screenshots);
-                        //
-                        // // Iterate over each screenshot and associate it with its corresponding
-                        // // method result.
-                        // for (File screenshot : screenshots) {
-                        // String methodName = screenshot.getParentFile().getName();
-                        //
-                        // DeviceTest testIdentifier = new DeviceTest(className, methodName);
-                        // DeviceTestResult.Builder builder =
-                        // result.getMethodResultBuilder(testIdentifier);
-                        // if (builder != null) {
-                        // builder.addScreenshot(screenshot);
-                        // testScreenshots.put(testIdentifier, screenshot);
-                        // } else {
-                        // logError("Unable to find test for %s", testIdentifier);
-                        // }
-                        // }
-                    }
+                @Override
+                public void testFailed(TestIdentifier test, String trace) {
+                }
 
-                    // Don't generate animations if the switch is present
-                    // if (!noAnimations) {
-                    // // Make animated GIFs for all the tests which have screenshots.
-                    // for (DeviceTest deviceTest : testScreenshots.keySet()) {
-                    // List<File> screenshots = new
-                    // ArrayList<File>(testScreenshots.get(deviceTest));
-                    // if (screenshots.size() == 1) {
-                    // continue; // Do not make an animated GIF if there is only one
-                    // // screenshot.
-                    // }
-                    // File animatedGif = FileUtils.getFile(imageDir, deviceTest.getClassName(),
-                    // deviceTest.getMethodName() + ".gif");
-                    // createAnimatedGif(screenshots, animatedGif);
-                    // result.getMethodResultBuilder(deviceTest).setAnimatedGif(animatedGif);
-                    // }
-                    // }
+                @Override
+                public void testAssumptionFailure(TestIdentifier test, String trace) {
                 }
-                FileUtils.deleteDirectory(screenshotDir);
-            }
-        } catch (Exception e) {
-            logDebug(debug, "EXCEPTION with pulling and manipulating screenshots on [%s]", serial);
 
-            result.addException(e);
-        }
+                @Override
+                public void testIgnored(TestIdentifier test) {
+                }
 
-        logDebug(debug, "DONE doing screenshot stuff on [%s]", serial);
+                @Override
+                public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+                    tests.add(DeviceTest.from(test));
+                }
 
-        // TODO can eventuall just remove this, as our screenshot tool does not use this data
-        if (false) {
-            addAppDataToResult(result, device);
+                @Override
+                public void testRunFailed(String errorMessage) {
+                    failures.add(errorMessage);
+                }
+
+                @Override
+                public void testRunStopped(long elapsedTime) {
+                }
+
+                @Override
+                public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to list tests on " + serial, e);
         }
+        if (!failures.isEmpty()) {
+            throw new RuntimeException("Unable to list tests on " + serial + ": " + failures);
+        }
+        logDebug(debug, "[%s] Found %d tests.", serial, tests.size());
+        return tests;
+    }
 
-        return result.build();
+    /**
+     * Install the application and instrumentation APKs.
+     * 
+     * @return a failure message, or {@code null} if both were installed.
+     */
+    private String installApks(IDevice device, final DeviceResult.Builder result) {
+        final ApkInstaller installer = new ApkInstaller(device, serial, debug, forceInstall, transfers);
+        FutureTask<String> testInstall = new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws InstallException {
+                return installer.install(testApk, instrumentationInfo.getInstrumentationPackage(), result);
+            }
+        });
+        Thread testInstallThread = null;
+        if (installer.supportsConcurrentInstalls()) {
+            testInstallThread = new Thread(testInstall, "spoon-install-" + serial);
+            testInstallThread.start();
+        }
+        try {
+            String installError = installer.install(apk, instrumentationInfo.getApplicationPackage(), result);
+            if (installError != null) {
+                logInfo("[%s] app apk install failed.  Error [%s]", serial, installError);
+                return "Unable to install application APK.";
+            }
+            if (!installer.supportsConcurrentInstalls()) {
+                testInstall.run();
+            }
+            installError = testInstall.get();
+            if (installError != null) {
+                logInfo("[%s] test apk install failed.  Error [%s]", serial, installError);
+                return "Unable to install instrumentation APK.";
+            }
+        } catch (InstallException e) {
+            logInfo("[%s] InstallException: %s", serial, e.getMessage());
+            logDebug(debug, "[%s] %s", serial, Throwables.getStackTraceAsString(e));
+            return e.getMessage();
+        } catch (ExecutionException e) {
+            logInfo("[%s] InstallException: %s", serial, e.getCause().getMessage());
+            logDebug(debug, "[%s] %s", serial, Throwables.getStackTraceAsString(e.getCause()));
+            return e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // The instrumentation install writes to the result, so it has to stop before we return.
+            testInstall.cancel(true);
+            if (testInstallThread != null) {
+                Uninterruptibles.joinUninterruptibly(testInstallThread);
+            }
+        }
+        return null;
     }
 
-    private void addAppDataToResult(DeviceResult.Builder result, IDevice device) {
+    private void addAppDataToResult(DeviceResult.Builder result, PullEngine pulls, String outputDirectory) {
         // gather Lumos App Data stuffs
         try {
             logDebug(debug, "About to grab app data and prepare output for [%s]", serial);
 
             // Sync device app data, if any, to the local filesystem.
-            String dirName = "data";
-            String localDirName = work.getAbsolutePath();
+            String dirName = APP_DATA;
 
-            // Get external storage directory (fix for Lollipop devices)
-            String externalStorageDirectory = getExternalStorageDir(device);
-            final String devicePath = externalStorageDirectory + "/lumosity_test_data/" + dirName;
+            final String devicePath = outputDirectory + "/" + dirName;
 
-            FileEntry deviceDir = obtainDirectoryFileEntry(devicePath);
             logDebug(debug, "Pulling App Data from [%s] %s", serial, devicePath);
 
-            device.getSyncService().pull(new FileEntry[] { deviceDir }, localDirName, SyncService.getNullProgressMonitor());
-
             File appDataDir = new File(work, dirName);
+            result.addTransfer(pulls.pull(devicePath, appDataDir));
+
             if (appDataDir.exists()) {
                 dataDir.mkdirs();
 
@@ -384,7 +883,7 @@ public final class SpoonDeviceRunner {
                         }
                         String className = classNameDir.getName();
                         File destDir = new File(dataDir, className);
-                        FileUtils.copyDirectory(classNameDir, destDir);
+                        moveDirectory(classNameDir, destDir);
 
                         // Get a sorted list of all test data files! in this class
                         List<File> appDataStuffs = new ArrayList<File>(FileUtils.listFiles(destDir, TrueFileFilter.INSTANCE,
@@ -447,27 +946,21 @@ public final class SpoonDeviceRunner {
 
     };
 
-    private String getExternalStorageDir(IDevice device) {
-        // Get external storage directory
-        CollectingOutputReceiver pathNameOutputReciever = new CollectingOutputReceiver();
-        String dir = "";
-        try {
-            device.executeShellCommand("echo $EXTERNAL_STORAGE", pathNameOutputReciever);
-            dir = pathNameOutputReciever.getOutput().trim();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return dir;
-    }
-
     // ///////////////////////////////////////////////////////////////////////////
     // // Secondary Per-Device Process /////////////////////////////////////////
     // ///////////////////////////////////////////////////////////////////////////
 
-    /** De-serialize from disk, run the tests, and serialize the result back to disk. */
+    /**
+     * De-serialize from disk, run the tests, and stream {@link DeviceEvent}s, ending with the
+     * result, to the parent through standard output.
+     */
     public static void main(String... args) {
         if (args.length != 1) { throw new IllegalArgumentException("Must be started with a device directory."); }
 
+        // Standard output carries the events so everything else goes to standard error.
+        DataOutputStream eventStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+
         try {
             String outputDirName = args[0];
             File outputDir = new File(outputDirName);
@@ -477,15 +970,17 @@ public final class SpoonDeviceRunner {
             FileReader reader = new FileReader(executionFile);
             SpoonDeviceRunner target = GSON.fromJson(reader, SpoonDeviceRunner.class);
             reader.close();
+            // Classes for the configuration and the Spoon runner itself are loaded by now.
+            target.processStartup = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            target.events = new DeviceEventListener(eventStream, TestIdentifierAdapter.fromTestRunner(
+                target.instrumentationInfo.getTestRunnerClass()));
 
-            AndroidDebugBridge adb = SpoonUtils.initAdb(target.sdk);
+            AndroidDebugBridge adb = SpoonUtils.initAdb(target.sdk, Collections.singleton(target.serial), 0,
+                SpoonUtils.ADB_CONNECT_TIMEOUT);
             DeviceResult result = target.run(adb);
             AndroidDebugBridge.terminate();
 
-            // Write device result file.
-            FileWriter writer = new FileWriter(new File(outputDir, FILE_RESULT));
-            GSON.toJson(result, writer);
-            writer.close();
+            target.events.send(DeviceEvent.result(result));
         } catch (Throwable ex) {
             logInfo("ERROR: Unable to execute test for target.  Exception message: %s", ex.getMessage());
             ex.printStackTrace(System.out);
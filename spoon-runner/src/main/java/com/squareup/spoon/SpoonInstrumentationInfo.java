@@ -4,6 +4,8 @@ import com.squareup.spoon.axmlparser.AXMLParser;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.apache.commons.io.IOUtils;
@@ -13,6 +15,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /** Detailed instrumentation information. */
 final class SpoonInstrumentationInfo {
+    /** Parsed manifests by APK path, so that repeated executions do not parse an unchanged APK again. */
+    private static final ConcurrentMap<String, Parsed> PARSED = new ConcurrentHashMap<String, Parsed>();
+
     private final String applicationPackage;
     private final String instrumentationPackage;
     private final String testRunnerClass;
@@ -40,8 +45,23 @@ final class SpoonInstrumentationInfo {
         return ToStringBuilder.reflectionToString(this);
     }
 
-    /** Parse key information from an instrumentation APK's manifest. */
+    /**
+     * Parse key information from an instrumentation APK's manifest. The result is reused for as long
+     * as the APK's size and modification time do not change.
+     */
     static SpoonInstrumentationInfo parseFromFile(File apkTestFile) {
+        String path = apkTestFile.getAbsolutePath();
+        long lastModified = apkTestFile.lastModified();
+        long length = apkTestFile.length();
+        Parsed parsed = PARSED.get(path);
+        if (parsed == null || parsed.lastModified != lastModified || parsed.length != length) {
+            parsed = new Parsed(lastModified, length, parse(apkTestFile));
+            PARSED.put(path, parsed);
+        }
+        return parsed.info;
+    }
+
+    private static SpoonInstrumentationInfo parse(File apkTestFile) {
         InputStream is = null;
         try {
             ZipFile zip = new ZipFile(apkTestFile);
@@ -92,4 +112,16 @@ final class SpoonInstrumentationInfo {
             IOUtils.closeQuietly(is);
         }
     }
+
+    private static final class Parsed {
+        final long lastModified;
+        final long length;
+        final SpoonInstrumentationInfo info;
+
+        Parsed(long lastModified, long length, SpoonInstrumentationInfo info) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.info = info;
+        }
+    }
 }
@@ -1,8 +1,11 @@
 package com.squareup.spoon;
 
+import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /** Simple logger interface. */
 final class SpoonLogger {
@@ -13,16 +16,40 @@ final class SpoonLogger {
         }
     };
 
+    private static final List<Sink> SINKS = new CopyOnWriteArrayList<Sink>();
+
+    /** Receives every line logged while it is added, in addition to the console. */
+    interface Sink {
+        void line(String line);
+    }
+
+    static void addSink(Sink sink) {
+        SINKS.add(sink);
+    }
+
+    static void removeSink(Sink sink) {
+        SINKS.remove(sink);
+    }
+
     static void logError(String message, Object... args) {
-        System.err.println(getPrefix() + String.format(message, args));
+        emit(System.err, getPrefix() + String.format(message, args));
     }
 
     static void logInfo(String message, Object... args) {
-        System.out.println(getPrefix() + String.format(message, args));
+        emit(System.out, getPrefix() + String.format(message, args));
     }
 
     static void logDebug(boolean debug, String message, Object... args) {
-        if (debug) System.out.println(getPrefix() + String.format(message, args));
+        if (debug) emit(System.out, getPrefix() + String.format(message, args));
+    }
+
+    private static void emit(PrintStream console, String text) {
+        console.println(text);
+        for (Sink sink : SINKS) {
+            for (String line : text.split("\r?\n", -1)) {
+                sink.line(line);
+            }
+        }
     }
 
     private static String getPrefix() {
@@ -7,23 +7,39 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.squareup.spoon.adapters.TestIdentifierAdapter;
 import com.squareup.spoon.html.HtmlRenderer;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.squareup.spoon.DeviceTestResult.Status;
 import static com.squareup.spoon.SpoonInstrumentationInfo.parseFromFile;
 import static com.squareup.spoon.SpoonLogger.logDebug;
+import static com.squareup.spoon.SpoonLogger.logError;
 import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.deleteInBackground;
 import static java.util.Collections.synchronizedSet;
 
 /** Represents a collection of devices and the test configuration to be executed. */
@@ -31,6 +47,11 @@ public final class SpoonRunner {
     private static final String DEFAULT_TITLE = "Spoon Execution";
     public static final String DEFAULT_OUTPUT_DIRECTORY = "spoon-output";
     private static final int DEFAULT_ADB_TIMEOUT = 10 * 60; // 10 minutes
+    private static final long DEFAULT_TEST_DURATION = 5; // 5 seconds
+    private static final int DEFAULT_DEVICE_WAIT_TIMEOUT = 10; // 10 seconds
+    private static final int DEFAULT_PULL_CONNECTIONS = 4;
+    /** Key in the summary of the tests which were left in the work queue when every device stopped. */
+    static final String NOT_RUN = "not-run";
 
     private final String title;
     private final File androidSdk;
@@ -47,10 +68,34 @@ public final class SpoonRunner {
     private final IRemoteAndroidTestRunner.TestSize testSize;
     private final boolean failIfNoDeviceConnected;
     private final boolean disableLogging;
+    private final SpoonWorkQueue.Granularity distribution;
+    private final boolean shard;
+    private final File testDurations;
+    private final long defaultTestDuration;
+    private final int deviceConcurrency;
+    private final boolean inProcess;
+    private final int expectedDevices;
+    private final int deviceWaitTimeout;
+    private final boolean classDataSharing;
+    private final boolean forceInstall;
+    private final int transferLimit;
+    private final Map<String, String> transferGroups;
+    private final boolean prepareDevices;
+    private final int pullConnections;
+    private final boolean archivePulls;
+    private final int logBufferSize;
+    private final List<String> logcatFilters;
+    private final boolean logcatPid;
+    private final boolean logcatBinary;
 
     private SpoonRunner(String title, File androidSdk, File applicationApk, File instrumentationApk, File output, boolean debug,
         boolean noAnimations, int adbTimeout, Set<String> serials, String classpath, String className, String methodName,
-        IRemoteAndroidTestRunner.TestSize testSize, boolean failIfNoDeviceConnected, boolean disableLogging) {
+        IRemoteAndroidTestRunner.TestSize testSize, boolean failIfNoDeviceConnected, boolean disableLogging,
+        SpoonWorkQueue.Granularity distribution, boolean shard, File testDurations, long defaultTestDuration,
+        int deviceConcurrency, boolean inProcess, int expectedDevices, int deviceWaitTimeout,
+        boolean classDataSharing, boolean forceInstall, int transferLimit, Map<String, String> transferGroups,
+        boolean prepareDevices, int pullConnections, boolean archivePulls, int logBufferSize, List<String> logcatFilters,
+        boolean logcatPid, boolean logcatBinary) {
         this.title = title;
         this.androidSdk = androidSdk;
         this.applicationApk = applicationApk;
@@ -66,6 +111,25 @@ public final class SpoonRunner {
         this.serials = ImmutableSet.copyOf(serials);
         this.failIfNoDeviceConnected = failIfNoDeviceConnected;
         this.disableLogging = disableLogging;
+        this.distribution = distribution;
+        this.shard = shard;
+        this.testDurations = testDurations;
+        this.defaultTestDuration = defaultTestDuration;
+        this.deviceConcurrency = deviceConcurrency;
+        this.inProcess = inProcess;
+        this.expectedDevices = expectedDevices;
+        this.deviceWaitTimeout = deviceWaitTimeout;
+        this.classDataSharing = classDataSharing;
+        this.forceInstall = forceInstall;
+        this.transferLimit = transferLimit;
+        this.transferGroups = ImmutableMap.copyOf(transferGroups);
+        this.prepareDevices = prepareDevices;
+        this.pullConnections = pullConnections;
+        this.archivePulls = archivePulls;
+        this.logBufferSize = logBufferSize;
+        this.logcatFilters = ImmutableList.copyOf(logcatFilters);
+        this.logcatPid = logcatPid;
+        this.logcatBinary = logcatBinary;
     }
 
     /**
@@ -74,45 +138,120 @@ public final class SpoonRunner {
      * @return {@code true} if there were no test failures or exceptions thrown.
      */
     public boolean run() {
-        checkArgument(applicationApk.exists(), "Could not find application APK.");
-        checkArgument(instrumentationApk.exists(), "Could not find instrumentation APK.");
-
-        AndroidDebugBridge adb = SpoonUtils.initAdb(androidSdk);
+        long launched = System.currentTimeMillis();
+        // Prepare the output and read the test APK while ADB connects.
+        Future<SpoonInstrumentationInfo> testInfo = prepare();
+        AndroidDebugBridge adb = SpoonUtils.initAdb(androidSdk, serials, expectedDevices, deviceWaitTimeout * 1000L);
 
         try {
-            // If we were given an empty serial set, load all available devices.
-            Set<String> serials = this.serials;
-            if (serials.isEmpty()) {
-                serials = SpoonUtils.findAllDevices(adb);
-            }
-            if (failIfNoDeviceConnected && serials.isEmpty()) { throw new RuntimeException("No device(s) found."); }
-
-            // Execute all the things...
-            SpoonSummary summary = runTests(adb, serials);
-            // ...and render to HTML
-            new HtmlRenderer(summary, SpoonUtils.GSON, output).render();
-
-            return parseOverallSuccess(summary);
+            return run(adb, testInfo, launched);
         } finally {
             AndroidDebugBridge.terminate();
         }
     }
 
-    private SpoonSummary runTests(AndroidDebugBridge adb, Set<String> serials) {
-        int targetCount = serials.size();
-        logInfo("Executing instrumentation suite on %d device(s).", targetCount);
+    /**
+     * Install and execute the tests on all specified devices using an already connected bridge,
+     * which is left open afterwards.
+     *
+     * @return {@code true} if there were no test failures or exceptions thrown.
+     */
+    boolean run(AndroidDebugBridge adb) {
+        return run(adb, prepare(), System.currentTimeMillis());
+    }
 
-        try {
-            FileUtils.deleteDirectory(output);
-        } catch (IOException e) {
-            throw new RuntimeException("Unable to clean output directory: " + output, e);
+    private boolean run(AndroidDebugBridge adb, Future<SpoonInstrumentationInfo> preparation, long launched) {
+        // If we were given an empty serial set, load all available devices.
+        Set<String> serials = this.serials;
+        if (serials.isEmpty()) {
+            serials = SpoonUtils.findAllDevices(adb);
         }
+        if (failIfNoDeviceConnected && serials.isEmpty()) { throw new RuntimeException("No device(s) found."); }
 
-        final SpoonInstrumentationInfo testInfo = parseFromFile(instrumentationApk);
+        SpoonInstrumentationInfo testInfo;
+        try {
+            testInfo = preparation.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
         logDebug(debug, "Application: %s from %s", testInfo.getApplicationPackage(), applicationApk.getAbsolutePath());
         logDebug(debug, "Instrumentation: %s from %s", testInfo.getInstrumentationPackage(), instrumentationApk.getAbsolutePath());
 
-        final SpoonSummary.Builder summary = new SpoonSummary.Builder().setTitle(title).start();
+        // Execute all the things...
+        SpoonSummary summary = runTests(adb, serials, testInfo, launched);
+        if (summary.getTimeToFirstTest() != -1) {
+            logInfo("Time to first test: %d ms.", summary.getTimeToFirstTest());
+        }
+        logProcessStartup(summary);
+        logTransfers(summary);
+        logLogcat(summary);
+        if (testDurations != null) {
+            // Remember how long each test took to balance the shards of the next run.
+            TestDurationHistory history = TestDurationHistory.load(testDurations);
+            history.record(summary);
+            history.save(testDurations);
+        }
+        // ...and render to HTML
+        long renderStart = System.nanoTime();
+        HtmlRenderer renderer = new HtmlRenderer(summary, SpoonUtils.REPORT_GSON, output);
+        File logStores = new File(output, SpoonDeviceRunner.LOG_STORE_DIR);
+        try {
+            renderer.render();
+        } finally {
+            // The logs are in the report now. Debug runs keep the files, but not their mappings.
+            LogStore.release(logStores);
+        }
+        logReport(renderer, renderStart);
+        if (!debug) {
+            try {
+                deleteInBackground(logStores);
+            } catch (IOException ignored) {
+            }
+        }
+
+        return parseOverallSuccess(summary);
+    }
+
+    /**
+     * Start cleaning the output directory, copying the static report assets and parsing the
+     * instrumentation APK in the background. The returned future completes once all are done.
+     */
+    private Future<SpoonInstrumentationInfo> prepare() {
+        checkArgument(applicationApk.exists(), "Could not find application APK.");
+        checkArgument(instrumentationApk.exists(), "Could not find instrumentation APK.");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("spoon-startup-%d").build());
+        final Future<?> outputReady = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteInBackground(output);
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to clean output directory: " + output, e);
+                }
+                HtmlRenderer.copyStaticAssets(output);
+            }
+        });
+        Future<SpoonInstrumentationInfo> testInfo = executor.submit(new Callable<SpoonInstrumentationInfo>() {
+            @Override
+            public SpoonInstrumentationInfo call() throws Exception {
+                SpoonInstrumentationInfo testInfo = parseFromFile(instrumentationApk);
+                outputReady.get();
+                return testInfo;
+            }
+        });
+        executor.shutdown();
+        return testInfo;
+    }
+
+    private SpoonSummary runTests(final AndroidDebugBridge adb, Set<String> serials, final SpoonInstrumentationInfo testInfo,
+        long launched) {
+        final int targetCount = serials.size();
+        logInfo("Executing instrumentation suite on %d device(s).", targetCount);
+
+        final SpoonSummary.Builder summary = new SpoonSummary.Builder().setTitle(title).setLaunched(launched).start();
 
         if (testSize != null) {
             summary.setTestSize(testSize);
@@ -126,25 +265,80 @@ public final class SpoonRunner {
                 logDebug(debug, "[%s] Starting execution.", serial);
                 summary.addResult(safeSerial, getTestRunner(serial, testInfo).run(adb));
             } catch (Exception e) {
-                logDebug(debug, "[%s] Execution exception!", serial);
-                e.printStackTrace(System.out);
+                logError("[%s] Execution exception: %s", serial, Throwables.getStackTraceAsString(e));
                 summary.addResult(safeSerial, new DeviceResult.Builder().addException(e).build());
             } finally {
                 logDebug(debug, "[%s] Execution done.", serial);
             }
         } else {
-            // Spawn a new thread for each device and wait for them all to finish.
+            // When distributing, split the suite into units of work which all devices pull from.
+            final SpoonWorkQueue workQueue;
+            if (distribution != null) {
+                String firstSerial = serials.iterator().next();
+                List<DeviceTest> tests = getTestRunner(firstSerial, testInfo).collectTests(adb);
+                workQueue = SpoonWorkQueue.create(tests, distribution);
+                logInfo("Distributing %d tests as %d units of work across %d device(s).", tests.size(), workQueue.size(), targetCount);
+            } else {
+                workQueue = null;
+            }
+
+            // When sharding with a history of test durations, plan shards of equal expected length.
+            final List<List<String>> plannedShards;
+            if (shard && testDurations != null) {
+                String firstSerial = serials.iterator().next();
+                List<DeviceTest> tests = getTestRunner(firstSerial, testInfo).collectTests(adb);
+                TestDurationHistory history = TestDurationHistory.load(testDurations);
+                TestIdentifierAdapter adapter = TestIdentifierAdapter.fromTestRunner(testInfo.getTestRunnerClass());
+                plannedShards = new ArrayList<List<String>>(targetCount);
+                for (List<DeviceTest> planned : ShardBalancer.balance(tests, targetCount, history, adapter, defaultTestDuration)) {
+                    plannedShards.add(ShardBalancer.testNames(planned, tests));
+                }
+                logInfo("Balanced %d tests across %d shards using %d known durations.", tests.size(), targetCount, history.size());
+            } else {
+                plannedShards = null;
+            }
+
+            final ClassDataSharing sharing = classDataSharing ? ClassDataSharing.forClasspath(classpath) : null;
+
+            // Run at most 'deviceConcurrency' devices at once and wait for them all to finish.
+            int threadCount = deviceConcurrency > 0 ? Math.min(deviceConcurrency, targetCount) : targetCount;
+            logDebug(debug, "Running %d device(s) with a concurrency of %d.", targetCount, threadCount);
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder().setNameFormat("spoon-device-%d").build());
             final CountDownLatch done = new CountDownLatch(targetCount);
             final Set<String> remaining = synchronizedSet(new HashSet<String>(serials));
+            int shardIndex = 0;
             for (final String serial : serials) {
                 final String safeSerial = SpoonUtils.sanitizeSerial(serial);
-                logDebug(debug, "[%s] Starting execution.", serial);
-                new Thread(new Runnable() {
+                final int deviceShardIndex = shardIndex++;
+                final long queued = System.nanoTime();
+                logDebug(debug, "[%s] Queued for execution.", serial);
+                executor.execute(new Runnable() {
                     @Override
                     public void run() {
+                        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued);
+                        summary.addQueueWait(safeSerial, waited);
+                        logDebug(debug, "[%s] Starting execution after waiting %d ms.", serial, waited);
                         try {
-                            summary.addResult(safeSerial, getTestRunner(serial, testInfo).runInNewProcess());
-                        } catch (Exception e) {
+                            SpoonDeviceRunner testRunner;
+                            if (shard) {
+                                logDebug(debug, "[%s] Running shard %d of %d.", serial, deviceShardIndex + 1, targetCount);
+                                List<String> shardTestNames = plannedShards != null ? plannedShards.get(deviceShardIndex) : null;
+                                testRunner = getTestRunner(serial, testInfo, deviceShardIndex, targetCount, shardTestNames);
+                            } else {
+                                testRunner = getTestRunner(serial, testInfo);
+                            }
+                            if (workQueue != null) {
+                                // The queue lives in this process so the device has to run here too.
+                                summary.addResult(safeSerial, testRunner.run(adb, workQueue));
+                            } else if (inProcess) {
+                                summary.addResult(safeSerial, testRunner.run(adb));
+                            } else {
+                                summary.addResult(safeSerial, testRunner.runInNewProcess(sharing));
+                            }
+                        } catch (Throwable e) {
+                            // Devices may share this process so nothing thrown here can reach the others.
+                            logDebug(debug, "[%s] Execution exception!", serial);
                             summary.addResult(safeSerial, new DeviceResult.Builder().addException(e).build());
                         } finally {
                             done.countDown();
@@ -152,20 +346,35 @@ public final class SpoonRunner {
                             logDebug(debug, "[%s] Execution done. (%s remaining %s)", serial, done.getCount(), remaining);
                         }
                     }
-                }).start();
+                });
             }
+            executor.shutdown();
 
             try {
                 done.await();
             } catch (InterruptedException e) {
+                executor.shutdownNow();
                 throw new RuntimeException(e);
             }
+
+            if (workQueue != null) {
+                // Every device stopped before the queue was drained. Those tests did not pass.
+                List<SpoonWorkQueue.WorkUnit> notRun = workQueue.drain();
+                if (!notRun.isEmpty()) {
+                    logInfo("%d units of work were never run, no device was left to run them.", notRun.size());
+                    DeviceResult.Builder result = new DeviceResult.Builder();
+                    for (SpoonWorkQueue.WorkUnit unit : notRun) {
+                        workQueue.recordNotRun(unit, result, "Not run: no device was left to run " + unit + ".");
+                    }
+                    summary.addResult(NOT_RUN, result.addException(notRun.size() + " units of work were never run.").build());
+                }
+            }
         }
 
         if (!debug) {
             // Clean up anything in the work directory.
             try {
-                FileUtils.deleteDirectory(new File(output, SpoonDeviceRunner.TEMP_DIR));
+                deleteInBackground(new File(output, SpoonDeviceRunner.TEMP_DIR));
             } catch (IOException ignored) {
             }
         }
@@ -173,6 +382,62 @@ public final class SpoonRunner {
         return summary.end().build();
     }
 
+    private void logProcessStartup(SpoonSummary summary) {
+        long total = 0;
+        long max = 0;
+        int count = 0;
+        for (DeviceResult result : summary.getResults().values()) {
+            if (result.getProcessStartup() > 0) {
+                total += result.getProcessStartup();
+                max = Math.max(max, result.getProcessStartup());
+                count += 1;
+            }
+        }
+        if (count > 0) {
+            logInfo("Device process startup: %d ms average, %d ms max (class data sharing %s).", total / count, max,
+                classDataSharing ? "on" : "off");
+        }
+    }
+
+    private void logReport(HtmlRenderer renderer, long start) {
+        logInfo("Report rendered in %d ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (renderer.getLogPages() > 0 || renderer.getLogsSkipped() > 0) {
+            logInfo("Test logs: %d pages, %d KB of scripts from %d KB of JSON. %d tests without a log got no page.", renderer.getLogPages(),
+                renderer.getLogScriptBytes() / 1024, renderer.getLogBytes() / 1024, renderer.getLogsSkipped());
+        }
+    }
+
+    private void logLogcat(SpoonSummary summary) {
+        long received = 0;
+        long kept = 0;
+        for (DeviceResult result : summary.getResults().values()) {
+            received += result.getLogLinesReceived();
+            kept += result.getLogLinesKept();
+        }
+        if (received > 0) {
+            logInfo("Logcat: %d lines received, %d kept in test logs, %d dropped.", received, kept, received - kept);
+        }
+    }
+
+    private void logTransfers(SpoonSummary summary) {
+        long bytes = 0;
+        long duration = 0;
+        long maxWait = 0;
+        int count = 0;
+        for (DeviceResult result : summary.getResults().values()) {
+            for (DeviceTransfer transfer : result.getTransfers()) {
+                bytes += transfer.getBytes();
+                duration += transfer.getDuration();
+                maxWait = Math.max(maxWait, transfer.getWaited());
+                count += 1;
+            }
+        }
+        if (count > 0) {
+            logInfo("Transfers: %d totalling %d KB at %d KB/s, longest wait for the bus %d ms.", count, bytes / 1024,
+                duration > 0 ? bytes * 1000 / duration / 1024 : 0, maxWait);
+        }
+    }
+
     /** Returns {@code false} if a test failed on any device. */
     static boolean parseOverallSuccess(SpoonSummary summary) {
         for (DeviceResult result : summary.getResults().values()) {
@@ -196,8 +461,21 @@ public final class SpoonRunner {
     }
 
     private SpoonDeviceRunner getTestRunner(String serial, SpoonInstrumentationInfo testInfo) {
+        return getTestRunner(serial, testInfo, 0, 0, null);
+    }
+
+    private SpoonDeviceRunner getTestRunner(String serial, SpoonInstrumentationInfo testInfo, int shardIndex, int numShards,
+        List<String> shardTestNames) {
         return new SpoonDeviceRunner(androidSdk, applicationApk, instrumentationApk, output, serial, debug, noAnimations, adbTimeout,
-            classpath, testInfo, className, methodName, testSize, disableLogging);
+            classpath, testInfo, className, methodName, testSize, disableLogging, shardIndex, numShards, shardTestNames,
+            forceInstall, getTransferScheduler(serial), prepareDevices,
+            pullConnections, archivePulls, logBufferSize, new ArrayList<String>(logcatFilters), logcatPid,
+            logcatBinary);
+    }
+
+    private TransferScheduler getTransferScheduler(String serial) {
+        String group = transferGroups.get(serial);
+        return TransferScheduler.forGroup(group != null ? group : TransferScheduler.DEFAULT_GROUP, transferLimit);
     }
 
     /** Build a test suite for the specified devices and configuration. */
@@ -217,6 +495,25 @@ public final class SpoonRunner {
         private int adbTimeout;
         private boolean failIfNoDeviceConnected;
         private boolean disableLogging;
+        private SpoonWorkQueue.Granularity distribution;
+        private boolean shard;
+        private File testDurations;
+        private long defaultTestDuration = DEFAULT_TEST_DURATION;
+        private int deviceConcurrency;
+        private boolean inProcess;
+        private int expectedDevices;
+        private int deviceWaitTimeout = DEFAULT_DEVICE_WAIT_TIMEOUT;
+        private boolean classDataSharing;
+        private boolean forceInstall;
+        private int transferLimit;
+        private final Map<String, String> transferGroups = new HashMap<String, String>();
+        private boolean prepareDevices;
+        private int pullConnections = DEFAULT_PULL_CONNECTIONS;
+        private boolean archivePulls;
+        private int logBufferSize = LumosFailureDeviceLogger.DEFAULT_CAPACITY;
+        private final List<String> logcatFilters = new ArrayList<String>();
+        private boolean logcatPid;
+        private boolean logcatBinary;
 
         /** Identifying title for this execution. */
         public Builder setTitle(String title) {
@@ -325,6 +622,171 @@ public final class SpoonRunner {
             return this;
         }
 
+        /**
+         * Split the suite into units of work of the given size which are pulled by all devices,
+         * rather than running the entire suite on every device. {@code null} disables this.
+         */
+        public Builder setDistribution(SpoonWorkQueue.Granularity distribution) {
+            this.distribution = distribution;
+            return this;
+        }
+
+        /**
+         * Give every device a disjoint slice of the suite through the instrumentation's
+         * {@code numShards} and {@code shardIndex} arguments, rather than running the entire suite
+         * on every device.
+         */
+        public Builder setShard(boolean shard) {
+            this.shard = shard;
+            return this;
+        }
+
+        /**
+         * File in which test durations are remembered across executions. When sharding, these
+         * durations are used to give every shard a similar amount of work.
+         */
+        public Builder setTestDurations(File testDurations) {
+            this.testDurations = testDurations;
+            return this;
+        }
+
+        /** Expected duration, in seconds, of tests which have no recorded duration yet. */
+        public Builder setDefaultTestDuration(long seconds) {
+            checkArgument(seconds >= 0, "Default test duration must not be negative.");
+            this.defaultTestDuration = seconds;
+            return this;
+        }
+
+        /**
+         * Maximum number of devices which run at the same time. Remaining devices wait for a slot
+         * to free up. Zero, the default, runs every device at once.
+         */
+        public Builder setDeviceConcurrency(int deviceConcurrency) {
+            checkArgument(deviceConcurrency >= 0, "Device concurrency must not be negative.");
+            this.deviceConcurrency = deviceConcurrency;
+            return this;
+        }
+
+        /**
+         * Run every device in this process against a single shared bridge instead of forking a
+         * new process for each of them.
+         */
+        public Builder setInProcess(boolean inProcess) {
+            this.inProcess = inProcess;
+            return this;
+        }
+
+        /**
+         * Wait for at least this many devices to be online before starting, or until the device wait
+         * timeout passes. Explicitly added serials are always waited for.
+         */
+        public Builder setExpectedDevices(int expectedDevices) {
+            checkArgument(expectedDevices >= 0, "Expected devices must not be negative.");
+            this.expectedDevices = expectedDevices;
+            return this;
+        }
+
+        /** Maximum time, in seconds, to wait for ADB and the expected devices. */
+        public Builder setDeviceWaitTimeout(int seconds) {
+            checkArgument(seconds > 0, "Device wait timeout must be positive.");
+            this.deviceWaitTimeout = seconds;
+            return this;
+        }
+
+        /**
+         * Start device processes from a class data sharing archive of the classpath, which is
+         * recorded by the first process when missing. Requires Java 13 or newer to have an effect.
+         */
+        public Builder setClassDataSharing(boolean classDataSharing) {
+            this.classDataSharing = classDataSharing;
+            return this;
+        }
+
+        /** Install the APKs even if the devices already have identical ones. */
+        public Builder setForceInstall(boolean forceInstall) {
+            this.forceInstall = forceInstall;
+            return this;
+        }
+
+        /**
+         * Maximum number of installs and pulls running at the same time in each transfer group,
+         * across every Spoon execution on this machine. Zero, the default, does not limit them.
+         */
+        public Builder setTransferLimit(int transferLimit) {
+            checkArgument(transferLimit >= 0, "Transfer limit must not be negative.");
+            this.transferLimit = transferLimit;
+            return this;
+        }
+
+        /**
+         * Put the device {@code serial} in the transfer group {@code group}, usually the USB bus or
+         * hub it is attached to. Devices without a group share a single one.
+         */
+        public Builder setTransferGroup(String serial, String group) {
+            checkNotNull(serial);
+            checkNotNull(group);
+            transferGroups.put(serial, group);
+            return this;
+        }
+
+        /** Wake and unlock the devices and turn off their system animations before running tests. */
+        public Builder setPrepareDevices(boolean prepareDevices) {
+            this.prepareDevices = prepareDevices;
+            return this;
+        }
+
+        /** Number of sync connections over which each device's test output is pulled at once. */
+        public Builder setPullConnections(int pullConnections) {
+            checkArgument(pullConnections > 0, "Pull connections must be positive.");
+            this.pullConnections = pullConnections;
+            return this;
+        }
+
+        /**
+         * Pack each device's test output into a tar archive on the device and pull that single file.
+         * Devices without {@code tar} have their files pulled one by one.
+         */
+        public Builder setArchivePulls(boolean archivePulls) {
+            this.archivePulls = archivePulls;
+            return this;
+        }
+
+        /** Number of log messages kept per device while a test runs, for the log of a failed test. */
+        public Builder setLogBufferSize(int logBufferSize) {
+            checkArgument(logBufferSize > 0, "Log buffer size must be positive.");
+            this.logBufferSize = logBufferSize;
+            return this;
+        }
+
+        /**
+         * Have the devices only send log messages matching {@code spec}, a logcat {@code TAG:PRIORITY}
+         * filter such as {@code MyApp:D}. Without any, messages of every tag are sent.
+         */
+        public Builder addLogcatFilter(String spec) {
+            checkNotNull(spec);
+            checkArgument(LogcatReceiver.FILTER_SPEC.matcher(spec).matches(), "Expected TAG:PRIORITY but was '%s'.", spec);
+            logcatFilters.add(spec);
+            return this;
+        }
+
+        /**
+         * Have devices on API 24 and newer only send log messages of the process running the tests,
+         * looking it up again whenever a test starts.
+         */
+        public Builder setLogcatPid(boolean logcatPid) {
+            this.logcatPid = logcatPid;
+            return this;
+        }
+
+        /**
+         * Receive the log of devices on API 24 and newer in binary form. It is cheaper to parse and
+         * messages outside of tests are dropped before they are created.
+         */
+        public Builder setLogcatBinary(boolean logcatBinary) {
+            this.logcatBinary = logcatBinary;
+            return this;
+        }
+
         public SpoonRunner build() {
             checkNotNull(androidSdk, "SDK is required.");
             checkArgument(androidSdk.exists(), "SDK path does not exist.");
@@ -335,9 +797,14 @@ public final class SpoonRunner {
             if (!Strings.isNullOrEmpty(methodName)) {
                 checkArgument(!Strings.isNullOrEmpty(className), "Must specify class name if you're specifying a method name.");
             }
+            checkArgument(distribution == null || !shard, "Cannot both distribute and shard tests.");
 
             return new SpoonRunner(title, androidSdk, applicationApk, instrumentationApk, output, debug, noAnimations, adbTimeout, serials,
-                classpath, className, methodName, testSize, failIfNoDeviceConnected, disableLogging);
+                classpath, className, methodName, testSize, failIfNoDeviceConnected, disableLogging, distribution, shard,
+                testDurations, defaultTestDuration, deviceConcurrency, inProcess, expectedDevices, deviceWaitTimeout,
+                classDataSharing, forceInstall, transferLimit, transferGroups,
+                prepareDevices, pullConnections, archivePulls, logBufferSize, logcatFilters, logcatPid,
+                logcatBinary);
         }
     }
 
@@ -387,11 +854,83 @@ public final class SpoonRunner {
             description = "Will disable gathering of logs in failed tests. If this param is included, then NO logs will be gathered. (default is on)")
         public boolean disableLogging;
 
+        @Parameter(names = { "--distribute" }, converter = GranularityConverter.class,
+            description = "Split tests across devices instead of running all of them on each device (class, method)")
+        public SpoonWorkQueue.Granularity distribute;
+
+        @Parameter(names = { "--shard" }, description = "Run a disjoint slice of the tests on each device")
+        public boolean shard;
+
+        @Parameter(names = { "--test-durations" }, converter = FileConverter.class,
+            description = "File in which test durations are kept to balance shards (updated after every run)")
+        public File testDurations;
+
+        @Parameter(names = { "--default-test-duration" },
+            description = "Expected duration in seconds of tests without a recorded duration (5s default)")
+        public long defaultTestDuration = DEFAULT_TEST_DURATION;
+
+        @Parameter(names = { "--device-concurrency" },
+            description = "Maximum number of devices running at the same time (all devices by default)")
+        public int deviceConcurrency;
+
+        @Parameter(names = { "--in-process" },
+            description = "Run all devices in this process instead of forking one process per device")
+        public boolean inProcess;
+
+        @Parameter(names = { "--expected-devices" },
+            description = "Number of devices to wait for before starting (only the initial device list by default)")
+        public int expectedDevices;
+
+        @Parameter(names = { "--device-wait-timeout" }, description = "Maximum seconds to wait for ADB and expected devices (10s default)")
+        public int deviceWaitTimeout = DEFAULT_DEVICE_WAIT_TIMEOUT;
+
+        @Parameter(names = { "--class-data-sharing" },
+            description = "Start device processes from a cached class data sharing archive (Java 13+)")
+        public boolean classDataSharing;
+
+        @Parameter(names = { "--force-install" }, description = "Install the APKs even if the device already has identical ones")
+        public boolean forceInstall;
+
+        @Parameter(names = { "--transfer-limit" },
+            description = "Maximum number of installs and pulls running at the same time per transfer group (unlimited by default)")
+        public int transferLimit;
+
+        @Parameter(names = { "--transfer-group" },
+            description = "Transfer group of a device, usually its USB bus, as SERIAL=GROUP (repeatable, comma separated)")
+        public List<String> transferGroups = new ArrayList<String>();
+
+        @Parameter(names = { "--prepare-devices" },
+            description = "Wake and unlock devices and turn off their system animations while running tests")
+        public boolean prepareDevices;
+
+        @Parameter(names = { "--pull-connections" },
+            description = "Number of sync connections over which each device's test output is pulled at once (4 default)")
+        public int pullConnections = DEFAULT_PULL_CONNECTIONS;
+
+        @Parameter(names = { "--archive-pulls" },
+            description = "Pack test output into a tar archive on the device and pull that single file")
+        public boolean archivePulls;
+
+        @Parameter(names = { "--log-buffer-size" },
+            description = "Number of log messages kept per device while a test runs, for the log of a failed test (20000 default)")
+        public int logBufferSize = LumosFailureDeviceLogger.DEFAULT_CAPACITY;
+
+        @Parameter(names = { "--logcat-filter" },
+            description = "Only have devices send log messages matching a logcat TAG:PRIORITY spec (repeatable, comma separated)")
+        public List<String> logcatFilters = new ArrayList<String>();
+
+        @Parameter(names = { "--logcat-pid" },
+            description = "Only have devices on API 24+ send log messages of the process running the tests")
+        public boolean logcatPid;
+
+        @Parameter(names = { "--logcat-binary" }, description = "Receive the log of devices on API 24+ in binary form")
+        public boolean logcatBinary;
+
         @Parameter(names = { "-h", "--help" }, description = "Command help", help = true, hidden = true)
         public boolean help;
     }
 
-    private static File cleanFile(String path) {
+    static File cleanFile(String path) {
         if (path == null) { return null; }
         return new File(path);
     }
@@ -415,6 +954,17 @@ public final class SpoonRunner {
         }
     }
 
+    public static class GranularityConverter implements IStringConverter<SpoonWorkQueue.Granularity> {
+        @Override
+        public SpoonWorkQueue.Granularity convert(String value) {
+            try {
+                return SpoonWorkQueue.Granularity.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unknown distribution '" + value + "', expected 'class' or 'method'.");
+            }
+        }
+    }
+
     public static void main(String... args) {
         CommandLineArgs parsedArgs = new CommandLineArgs();
         JCommander jc = new JCommander(parsedArgs);
@@ -433,16 +983,38 @@ public final class SpoonRunner {
             return;
         }
 
-        SpoonRunner spoonRunner = new SpoonRunner.Builder()
+        SpoonRunner spoonRunner = fromArgs(parsedArgs);
+        if (!spoonRunner.run() && parsedArgs.failOnFailure) {
+            System.exit(1);
+        }
+    }
+
+    /** Create a runner for parsed command line arguments. */
+    static SpoonRunner fromArgs(CommandLineArgs parsedArgs) {
+        SpoonRunner.Builder builder = new SpoonRunner.Builder()
             //
             .setTitle(parsedArgs.title).setApplicationApk(parsedArgs.apk).setInstrumentationApk(parsedArgs.testApk)
             .setOutputDirectory(parsedArgs.output).setDebug(parsedArgs.debug).setAndroidSdk(parsedArgs.sdk)
             .setNoAnimations(parsedArgs.noAnimations).setTestSize(parsedArgs.size).setAdbTimeout(parsedArgs.adbTimeoutSeconds * 1000)
             .setFailIfNoDeviceConnected(parsedArgs.failIfNoDeviceConnected).setClassName(parsedArgs.className)
-            .setMethodName(parsedArgs.methodName).useAllAttachedDevices().setDisableLogging(parsedArgs.disableLogging).build();
-
-        if (!spoonRunner.run() && parsedArgs.failOnFailure) {
-            System.exit(1);
+            .setMethodName(parsedArgs.methodName).useAllAttachedDevices().setDisableLogging(parsedArgs.disableLogging)
+            .setDistribution(parsedArgs.distribute).setShard(parsedArgs.shard)
+            .setTestDurations(parsedArgs.testDurations).setDefaultTestDuration(parsedArgs.defaultTestDuration)
+            .setDeviceConcurrency(parsedArgs.deviceConcurrency).setInProcess(parsedArgs.inProcess)
+            .setExpectedDevices(parsedArgs.expectedDevices).setDeviceWaitTimeout(parsedArgs.deviceWaitTimeout)
+            .setClassDataSharing(parsedArgs.classDataSharing)
+            .setForceInstall(parsedArgs.forceInstall).setTransferLimit(parsedArgs.transferLimit)
+            .setPrepareDevices(parsedArgs.prepareDevices).setPullConnections(parsedArgs.pullConnections)
+            .setArchivePulls(parsedArgs.archivePulls).setLogBufferSize(parsedArgs.logBufferSize)
+            .setLogcatPid(parsedArgs.logcatPid).setLogcatBinary(parsedArgs.logcatBinary);
+        for (String transferGroup : parsedArgs.transferGroups) {
+            int split = transferGroup.indexOf('=');
+            checkArgument(split > 0 && split < transferGroup.length() - 1, "Expected SERIAL=GROUP but was '%s'.", transferGroup);
+            builder.setTransferGroup(transferGroup.substring(0, split), transferGroup.substring(split + 1));
+        }
+        for (String logcatFilter : parsedArgs.logcatFilters) {
+            builder.addLogcatFilter(logcatFilter);
         }
+        return builder.build();
     }
 }
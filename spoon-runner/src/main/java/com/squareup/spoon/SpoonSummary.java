@@ -18,14 +18,18 @@ public final class SpoonSummary {
     private final long started;
     private final long duration;
     private final Map<String, DeviceResult> results;
+    private final Map<String, Long> queueWaits;
+    private final long timeToFirstTest;
 
     private SpoonSummary(String title, IRemoteAndroidTestRunner.TestSize testSize, long started, long duration,
-        Map<String, DeviceResult> results) {
+        Map<String, DeviceResult> results, Map<String, Long> queueWaits, long timeToFirstTest) {
         this.title = title;
         this.testSize = testSize;
         this.started = started;
         this.duration = duration;
         this.results = unmodifiableMap(new HashMap<String, DeviceResult>(results));
+        this.queueWaits = unmodifiableMap(new HashMap<String, Long>(queueWaits));
+        this.timeToFirstTest = timeToFirstTest;
     }
 
     /** Execution title. */
@@ -53,13 +57,31 @@ public final class SpoonSummary {
         return results;
     }
 
+    /**
+     * Time, in milliseconds, each device waited for a free execution slot by serial number. Devices
+     * which ran in this process without being queued are absent.
+     */
+    public Map<String, Long> getQueueWaits() {
+        return queueWaits;
+    }
+
+    /**
+     * Time, in milliseconds, from launching the execution until a test started on any device, or
+     * {@code -1} if no test started.
+     */
+    public long getTimeToFirstTest() {
+        return timeToFirstTest;
+    }
+
     static class Builder {
         private final Map<String, DeviceResult> results = new HashMap<String, DeviceResult>();
+        private final Map<String, Long> queueWaits = new HashMap<String, Long>();
         private String title;
         private IRemoteAndroidTestRunner.TestSize testSize;
         private long started;
         private long start;
         private long duration = -1;
+        private long launched;
 
         Builder setTitle(String title) {
             checkNotNull(title);
@@ -86,6 +108,21 @@ public final class SpoonSummary {
             return this;
         }
 
+        Builder addQueueWait(String serial, long millis) {
+            checkNotNull(serial);
+            checkArgument(millis >= 0, "Queue wait must not be negative.");
+            synchronized (queueWaits) {
+                queueWaits.put(serial, millis);
+            }
+            return this;
+        }
+
+        /** Time at which the execution was launched, before any startup work. */
+        Builder setLaunched(long launched) {
+            this.launched = launched;
+            return this;
+        }
+
         Builder start() {
             checkArgument(start == 0, "Start already called.");
             start = System.nanoTime();
@@ -104,7 +141,16 @@ public final class SpoonSummary {
             checkNotNull(title, "Title is required.");
             checkNotNull(started, "Never started.");
 
-            return new SpoonSummary(title, testSize, started, duration, results);
+            long firstTestStarted = 0;
+            for (DeviceResult result : results.values()) {
+                long deviceStarted = result.getFirstTestStarted();
+                if (deviceStarted != 0 && (firstTestStarted == 0 || deviceStarted < firstTestStarted)) {
+                    firstTestStarted = deviceStarted;
+                }
+            }
+            long timeToFirstTest = firstTestStarted == 0 ? -1 : firstTestStarted - (launched != 0 ? launched : started);
+
+            return new SpoonSummary(title, testSize, started, duration, results, queueWaits, timeToFirstTest);
         }
     }
 }
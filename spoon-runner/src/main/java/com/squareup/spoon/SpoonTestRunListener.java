@@ -17,26 +17,46 @@ final class SpoonTestRunListener implements ITestRunListener {
     private final Map<TestIdentifier, DeviceTestResult.Builder> methodResults = new HashMap<TestIdentifier, DeviceTestResult.Builder>();
     private final boolean debug;
     private final TestIdentifierAdapter testIdentifierAdapter;
+    private final boolean partialRun;
     private SpoonDeviceLogger mTestLogger;
+    private final ScreenshotCollector screenshotCollector;
 
-    SpoonTestRunListener(DeviceResult.Builder result, boolean debug, TestIdentifierAdapter testIdentifierAdapter, SpoonDeviceLogger testLogger) {
+    SpoonTestRunListener(DeviceResult.Builder result, boolean debug, TestIdentifierAdapter testIdentifierAdapter, SpoonDeviceLogger testLogger,
+        ScreenshotCollector screenshotCollector) {
+        this(result, debug, testIdentifierAdapter, testLogger, false, screenshotCollector);
+    }
+
+    /**
+     * @param partialRun
+     *            {@code true} if this is one of several instrumentation runs which report into the
+     *            same result. The caller is then responsible for starting and ending the tests.
+     * @param screenshotCollector
+     *            Collector to pull the screenshots of every test which ends, or {@code null}.
+     */
+    SpoonTestRunListener(DeviceResult.Builder result, boolean debug, TestIdentifierAdapter testIdentifierAdapter,
+        SpoonDeviceLogger testLogger, boolean partialRun, ScreenshotCollector screenshotCollector) {
         checkNotNull(result);
         this.result = result;
         this.debug = debug;
         this.testIdentifierAdapter = testIdentifierAdapter;
         this.mTestLogger = testLogger;
+        this.partialRun = partialRun;
+        this.screenshotCollector = screenshotCollector;
     }
 
     @Override
     public void testRunStarted(String runName, int testCount) {
         logDebug(debug, "testCount=%d runName=%s", testCount, runName);
-        result.startTests();
+        if (!partialRun) {
+            result.startTests();
+        }
     }
 
     @Override
     public void testStarted(TestIdentifier test) {
         // do stuff here... dump app data to files?
         logDebug(debug, "test=%s", test);
+        result.recordTestStarted();
         DeviceTestResult.Builder methodResult = new DeviceTestResult.Builder().startTest();
         methodResults.put(testIdentifierAdapter.adapt(test), methodResult);
         mTestLogger.handleTestStarted();
@@ -84,12 +104,18 @@ final class SpoonTestRunListener implements ITestRunListener {
         }
         DeviceTestResult.Builder methodResultBuilder = methodResult.endTest();
         result.addTestResultBuilder(DeviceTest.from(test), methodResultBuilder);
+        if (screenshotCollector != null) {
+            screenshotCollector.testEnded(DeviceTest.from(test));
+        }
     }
 
     @Override
     public void testRunFailed(String errorMessage) {
         logDebug(debug, "errorMessage=%s", errorMessage);
         result.addException(errorMessage);
+        if (screenshotCollector != null) {
+            screenshotCollector.testRunFailed();
+        }
     }
 
     @Override
@@ -100,7 +126,9 @@ final class SpoonTestRunListener implements ITestRunListener {
     @Override
     public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
         logDebug(debug, "elapsedTime=%d", elapsedTime);
-        result.endTests();
+        if (!partialRun) {
+            result.endTests();
+        }
     }
 
 }
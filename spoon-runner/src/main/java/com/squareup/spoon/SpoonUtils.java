@@ -7,47 +7,114 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import com.madgag.gif.fmsware.AnimatedGifEncoder;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
 import org.apache.commons.io.FileUtils;
 
 import static com.android.ddmlib.FileListingService.FileEntry;
 import static com.android.ddmlib.FileListingService.TYPE_DIRECTORY;
+import static com.squareup.spoon.SpoonLogger.logInfo;
 
 /** Utilities for executing instrumentation tests on devices. */
 final class SpoonUtils {
     private static final Pattern SERIAL_VALIDATION = Pattern.compile("[^a-zA-Z0-9_-]");
-    static final Gson GSON = new GsonBuilder() //
-        .registerTypeAdapter(File.class, new TypeAdapter<File>() {
-            @Override
-            public void write(JsonWriter jsonWriter, File file) throws IOException {
-                if (file == null) {
-                    jsonWriter.nullValue();
-                } else {
-                    jsonWriter.value(file.getAbsolutePath());
-                }
+    static final long ADB_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final TypeAdapter<File> FILE_ADAPTER = new TypeAdapter<File>() {
+        @Override
+        public void write(JsonWriter jsonWriter, File file) throws IOException {
+            if (file == null) {
+                jsonWriter.nullValue();
+            } else {
+                jsonWriter.value(file.getAbsolutePath());
             }
+        }
 
-            @Override
-            public File read(JsonReader jsonReader) throws IOException {
-                return new File(jsonReader.nextString());
+        @Override
+        public File read(JsonReader jsonReader) throws IOException {
+            return new File(jsonReader.nextString());
+        }
+    };
+    /** Passes a test log between processes as the range of the log store it is in. */
+    private static final TypeAdapter<TestLog> LOG_REFERENCE_ADAPTER = new TypeAdapter<TestLog>() {
+        @Override
+        public void write(JsonWriter jsonWriter, TestLog log) throws IOException {
+            if (log == null) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginArray();
+            if (!log.isEmpty()) {
+                jsonWriter.value(log.getStore().getFile().getAbsolutePath());
+                jsonWriter.value(log.getStart());
+                jsonWriter.value(log.getEnd());
             }
-        }) //
-        .enableComplexMapKeySerialization() //
-        .setPrettyPrinting() //
+            jsonWriter.endArray();
+        }
+
+        @Override
+        public TestLog read(JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            TestLog log = TestLog.EMPTY;
+            jsonReader.beginArray();
+            if (jsonReader.hasNext()) {
+                LogStore store = LogStore.open(new File(jsonReader.nextString()));
+                log = new TestLog(store, jsonReader.nextInt(), jsonReader.nextInt());
+            }
+            jsonReader.endArray();
+            return log;
+        }
+    };
+    /**
+     * Writes the number of messages of a test log. The messages themselves are in the compressed
+     * log script of the test next to the report, so a log read back from the report is empty.
+     */
+    private static final TypeAdapter<TestLog> LOG_SIZE_ADAPTER = new TypeAdapter<TestLog>() {
+        @Override
+        public void write(JsonWriter jsonWriter, TestLog log) throws IOException {
+            jsonWriter.value(log.size());
+        }
+
+        @Override
+        public TestLog read(JsonReader jsonReader) throws IOException {
+            jsonReader.nextInt();
+            return TestLog.EMPTY;
+        }
+    }.nullSafe();
+    /** For state passed between processes. Test logs are references to the log store. */
+    static final Gson GSON = gsonBuilder() //
+        .registerTypeAdapter(TestLog.class, LOG_REFERENCE_ADAPTER) //
+        .create();
+    /** For the report. Test logs are written as their number of messages. */
+    static final Gson REPORT_GSON = gsonBuilder() //
+        .registerTypeAdapter(TestLog.class, LOG_SIZE_ADAPTER) //
         .create();
 
+    private static GsonBuilder gsonBuilder() {
+        return new GsonBuilder() //
+            .registerTypeAdapter(File.class, FILE_ADAPTER) //
+            .enableComplexMapKeySerialization() //
+            .setPrettyPrinting();
+    }
+
     /** Fetch or create a real device that corresponds to a device model. */
     static IDevice obtainRealDevice(AndroidDebugBridge adb, String serial) {
         // Get an existing real device.
@@ -61,6 +128,84 @@ final class SpoonUtils {
         return SERIAL_VALIDATION.matcher(serial).replaceAll("_");
     }
 
+    /**
+     * Move {@code source} to {@code destination}, merging it into the directory if it already exists.
+     * Files are renamed and only copied when the two are on different file systems.
+     */
+    static void moveDirectory(File source, File destination) throws IOException {
+        if (!destination.exists()) {
+            destination.getParentFile().mkdirs();
+            if (source.renameTo(destination)) { return; }
+        }
+        if (!destination.isDirectory() && !destination.mkdirs()) { throw new IOException("Unable to create " + destination); }
+        File[] children = source.listFiles();
+        if (children == null) { throw new IOException("Unable to list " + source); }
+        for (File child : children) {
+            File target = new File(destination, child.getName());
+            if (child.isDirectory()) {
+                moveDirectory(child, target);
+            } else if (!child.renameTo(target)) {
+                FileUtils.copyFile(child, target);
+                FileUtils.forceDelete(child);
+            }
+        }
+        FileUtils.forceDelete(source);
+    }
+
+    /**
+     * Rename {@code directory} aside and delete it on a background thread, so that a new directory
+     * of the same name can be created right away. Leftovers of earlier deletions which were cut
+     * short are deleted as well.
+     *
+     * @return the thread doing the deletion.
+     */
+    static Thread deleteInBackground(File directory) throws IOException {
+        File parent = directory.getAbsoluteFile().getParentFile();
+        final String prefix = "." + directory.getName() + "-deleting-";
+        if (directory.exists() && !directory.renameTo(new File(parent, prefix + UUID.randomUUID()))) {
+            FileUtils.deleteDirectory(directory);
+        }
+        final File[] deleting = parent.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+        // Not a daemon so that a normal exit still waits for the deletion to finish.
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (deleting == null) { return; }
+                for (File file : deleting) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }, "spoon-delete-" + directory.getName());
+        thread.start();
+        return thread;
+    }
+
+    /** Spoon directory in the current user's home, for state shared by all their executions. */
+    static File userDirectory() {
+        return new File(System.getProperty("user.home"), ".spoon");
+    }
+
+    /** Create {@code directory} if needed and make it accessible to the current user only. */
+    static void createPrivateDirectory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) { throw new IOException("Unable to create " + directory); }
+        ownerOnly(directory);
+    }
+
+    /** Take every permission on {@code file} away from users other than its owner. */
+    static void ownerOnly(File file) throws IOException {
+        boolean restricted = file.setReadable(false, false) && file.setReadable(true, true) //
+            && file.setWritable(false, false) && file.setWritable(true, true);
+        if (file.isDirectory()) {
+            restricted &= file.setExecutable(false, false) && file.setExecutable(true, true);
+        }
+        if (!restricted) { throw new IOException("Unable to restrict access to " + file); }
+    }
+
     /** Get a {@link FileEntry} for an arbitrary path. */
     static FileEntry obtainDirectoryFileEntry(String path) {
         try {
@@ -95,11 +240,27 @@ final class SpoonUtils {
 
     /** Get an {@link com.android.ddmlib.AndroidDebugBridge} instance given an SDK path. */
     static AndroidDebugBridge initAdb(File sdk) {
+        return initAdb(sdk, Collections.<String>emptySet(), 0, ADB_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Get an {@link com.android.ddmlib.AndroidDebugBridge} instance given an SDK path, returning as
+     * soon as the initial device list is known, every one of {@code serials} is online and at least
+     * {@code deviceCount} devices are online, or once {@code timeoutMillis} have passed.
+     */
+    static AndroidDebugBridge initAdb(File sdk, Set<String> serials, int deviceCount, long timeoutMillis) {
         AndroidDebugBridge.init(false);
         File adbPath = FileUtils.getFile(sdk, "platform-tools", "adb");
-        AndroidDebugBridge adb = AndroidDebugBridge.createBridge(adbPath.getAbsolutePath(), true);
-        waitForAdb(adb);
-        return adb;
+        DeviceWaiter waiter = new DeviceWaiter(serials, deviceCount);
+        // Listen before creating the bridge so that no device event can be missed.
+        AndroidDebugBridge.addDeviceChangeListener(waiter);
+        try {
+            AndroidDebugBridge adb = AndroidDebugBridge.createBridge(adbPath.getAbsolutePath(), true);
+            waiter.await(adb, timeoutMillis);
+            return adb;
+        } finally {
+            AndroidDebugBridge.removeDeviceChangeListener(waiter);
+        }
     }
 
     static void createAnimatedGif(List<File> testScreenshots, File animatedGif) throws IOException {
@@ -126,16 +287,65 @@ final class SpoonUtils {
         encoder.finish();
     }
 
-    private static void waitForAdb(AndroidDebugBridge adb) {
-        for (int i = 1; i < 10; i++) {
-            try {
-                Thread.sleep(i * 100);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    /** Wakes up a waiting thread whenever a device appears or changes state. */
+    private static final class DeviceWaiter implements AndroidDebugBridge.IDeviceChangeListener {
+        /**
+         * ddmlib does not report an empty initial device list or the bridge connecting, so those
+         * are checked at this interval in between device events.
+         */
+        private static final long RECHECK_INTERVAL = 50;
+
+        private final Set<String> serials;
+        private final int deviceCount;
+
+        DeviceWaiter(Set<String> serials, int deviceCount) {
+            this.serials = serials;
+            this.deviceCount = deviceCount;
+        }
+
+        synchronized void await(AndroidDebugBridge adb, long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!isReady(adb)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (!adb.isConnected()) { throw new RuntimeException("Unable to connect to adb."); }
+                    // Carry on with the devices that did show up. Missing ones fail individually.
+                    logInfo("Timed out waiting for device(s). Found %d.", adb.getDevices().length);
+                    return;
+                }
+                try {
+                    wait(Math.min(remaining, RECHECK_INTERVAL));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        private boolean isReady(AndroidDebugBridge adb) {
+            if (!adb.isConnected() || !adb.hasInitialDeviceList()) { return false; }
+            Set<String> online = new LinkedHashSet<String>();
+            for (IDevice device : adb.getDevices()) {
+                if (device.isOnline()) {
+                    online.add(device.getSerialNumber());
+                }
             }
-            if (adb.isConnected()) { return; }
+            return online.containsAll(serials) && online.size() >= deviceCount;
+        }
+
+        @Override
+        public synchronized void deviceConnected(IDevice device) {
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void deviceDisconnected(IDevice device) {
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void deviceChanged(IDevice device, int changeMask) {
+            notifyAll();
         }
-        throw new RuntimeException("Unable to connect to adb.");
     }
 
     private SpoonUtils() {
@@ -0,0 +1,159 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.testrunner.IRemoteAndroidTestRunner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A suite of tests split into units of work which are shared by all devices. Each device keeps
+ * pulling the next unit until the queue is drained so that faster devices end up running more of
+ * the suite.
+ */
+public final class SpoonWorkQueue {
+    /** Size of an individual unit of work. */
+    public enum Granularity {
+        /** Every test class is a unit of work. */
+        CLASS,
+        /** Every test method is a unit of work. */
+        METHOD
+    }
+
+    /** Number of devices which may fail to run a unit before it is given up. */
+    static final int MAX_ATTEMPTS = 2;
+
+    private final Queue<WorkUnit> units = new ConcurrentLinkedQueue<WorkUnit>();
+    /** Tests of every unit, to record those which never ran. */
+    private final Map<WorkUnit, List<DeviceTest>> tests = new LinkedHashMap<WorkUnit, List<DeviceTest>>();
+    private final Map<WorkUnit, Integer> failures = new HashMap<WorkUnit, Integer>();
+
+    /** Split {@code tests} into units of work of the given {@code granularity}. */
+    static SpoonWorkQueue create(Collection<DeviceTest> tests, Granularity granularity) {
+        checkNotNull(tests);
+        checkNotNull(granularity);
+
+        // Keep the order in which the instrumentation reported the tests.
+        SpoonWorkQueue queue = new SpoonWorkQueue();
+        for (DeviceTest test : tests) {
+            WorkUnit unit = granularity == Granularity.CLASS ? new WorkUnit(test.getClassName(), null)
+                : new WorkUnit(test.getClassName(), test.getMethodName());
+            List<DeviceTest> unitTests = queue.tests.get(unit);
+            if (unitTests == null) {
+                unitTests = new ArrayList<DeviceTest>();
+                queue.tests.put(unit, unitTests);
+            }
+            unitTests.add(test);
+        }
+        queue.units.addAll(queue.tests.keySet());
+        return queue;
+    }
+
+    /** Take the next unit of work, or {@code null} if the queue has been drained. */
+    WorkUnit poll() {
+        return units.poll();
+    }
+
+    /**
+     * Return a unit of work which could not be completed so that another device can pick it up.
+     * Returns {@code false}, without requeueing it, once the unit failed {@link #MAX_ATTEMPTS} times.
+     */
+    synchronized boolean requeue(WorkUnit unit) {
+        checkNotNull(unit);
+        Integer failed = failures.get(unit);
+        int attempts = failed == null ? 1 : failed + 1;
+        failures.put(unit, attempts);
+        if (attempts >= MAX_ATTEMPTS) { return false; }
+        units.add(unit);
+        return true;
+    }
+
+    /** Take every unit which has not yet been taken. */
+    List<WorkUnit> drain() {
+        List<WorkUnit> drained = new ArrayList<WorkUnit>();
+        WorkUnit unit;
+        while ((unit = units.poll()) != null) {
+            drained.add(unit);
+        }
+        return drained;
+    }
+
+    /**
+     * Record every test of {@code unit} which has no result in {@code result} yet as an error with
+     * {@code message}.
+     */
+    void recordNotRun(WorkUnit unit, DeviceResult.Builder result, String message) {
+        List<DeviceTest> unitTests = tests.get(unit);
+        for (DeviceTest test : unitTests == null ? Collections.<DeviceTest>emptyList() : unitTests) {
+            if (result.getMethodResultBuilder(test) == null) {
+                result.addTestResultBuilder(test, new DeviceTestResult.Builder().markTestAsError(message).startTest().endTest());
+            }
+        }
+    }
+
+    /** Number of units which have not yet been taken. */
+    int size() {
+        return units.size();
+    }
+
+    /** A single test class or test method. */
+    static final class WorkUnit {
+        private final String className;
+        private final String methodName;
+
+        WorkUnit(String className, String methodName) {
+            checkNotNull(className);
+            this.className = className;
+            this.methodName = methodName;
+        }
+
+        /** Test class name. */
+        String getClassName() {
+            return className;
+        }
+
+        /** Test method name, or {@code null} if this unit is the whole class. */
+        String getMethodName() {
+            return methodName;
+        }
+
+        /** Restrict {@code runner} to the tests of this unit. */
+        void applyTo(IRemoteAndroidTestRunner runner) {
+            if (methodName == null) {
+                runner.setClassName(className);
+            } else {
+                runner.setMethodName(className, methodName);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            WorkUnit that = (WorkUnit) o;
+            if (!className.equals(that.className)) return false;
+            if (methodName != null ? !methodName.equals(that.methodName) : that.methodName != null) return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = className.hashCode();
+            result = 31 * result + (methodName != null ? methodName.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return methodName == null ? className : className + "#" + methodName;
+        }
+    }
+}
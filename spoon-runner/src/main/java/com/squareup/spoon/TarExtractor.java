@@ -0,0 +1,155 @@
+package com.squareup.spoon;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Extracts the regular files and directories of a tar archive as it is read, without holding more
+ * than a single block of it in memory. Understands ustar archives including GNU and pax long names.
+ */
+final class TarExtractor {
+    private static final int BLOCK = 512;
+
+    /**
+     * Extract the archive read from {@code in} into {@code directory}.
+     *
+     * @return the number of files extracted.
+     */
+    static int extract(InputStream in, File directory) throws IOException {
+        DataInputStream input = new DataInputStream(in);
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        int files = 0;
+        while (true) {
+            try {
+                input.readFully(header);
+            } catch (EOFException e) {
+                // Some writers omit the trailing zero blocks.
+                return files;
+            }
+            if (isZero(header)) {
+                return files;
+            }
+            long size = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+            String name = longName != null ? longName : name(header);
+            longName = null;
+
+            if (type == 'L') {
+                // GNU long name of the next entry.
+                longName = trimName(new String(readData(input, size), UTF_8));
+                continue;
+            }
+            if (type == 'x') {
+                // Pax extended header. Only the path matters here.
+                longName = paxPath(new String(readData(input, size), UTF_8));
+                continue;
+            }
+
+            File target = resolve(directory, name);
+            if (type == '5') {
+                target.mkdirs();
+            } else if (type == '0' || type == '\0') {
+                target.getParentFile().mkdirs();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+                try {
+                    ByteStreams.copy(ByteStreams.limit(input, size), out);
+                } finally {
+                    out.close();
+                }
+                ByteStreams.skipFully(input, padding(size));
+                files += 1;
+                continue;
+            }
+            // Links, devices and the like are not test output.
+            ByteStreams.skipFully(input, size + padding(size));
+        }
+    }
+
+    private static String name(byte[] header) {
+        String name = string(header, 0, 100);
+        String prefix = string(header, 345, 155);
+        if (header[257] == 'u' && prefix.length() > 0) {
+            name = prefix + "/" + name;
+        }
+        return name;
+    }
+
+    /** The file {@code name} in {@code directory}, refusing names which would escape it. */
+    private static File resolve(File directory, String name) throws IOException {
+        if (name.startsWith("/") || ("/" + name + "/").contains("/../")) {
+            throw new IOException("Refusing to extract " + name + " outside of " + directory);
+        }
+        return new File(directory, name);
+    }
+
+    private static byte[] readData(DataInputStream input, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) { throw new IOException("Extended header too large: " + size); }
+        byte[] data = new byte[(int) size];
+        input.readFully(data);
+        ByteStreams.skipFully(input, padding(size));
+        return data;
+    }
+
+    private static String paxPath(String records) {
+        // Each record reads "<length> <key>=<value>\n".
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space != -1 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 1 + "path=".length());
+            }
+        }
+        return null;
+    }
+
+    private static long padding(long size) {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) { return false; }
+        }
+        return true;
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, UTF_8);
+    }
+
+    private static String trimName(String name) {
+        int end = name.indexOf('\0');
+        return end == -1 ? name : name.substring(0, end);
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) { break; }
+                continue;
+            }
+            if (b < '0' || b > '7') { throw new IOException("Corrupt tar header."); }
+            value = value * 8 + (b - '0');
+        }
+        return value;
+    }
+
+    private TarExtractor() {
+        // No instances.
+    }
+}
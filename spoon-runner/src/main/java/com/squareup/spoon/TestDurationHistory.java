@@ -0,0 +1,100 @@
+package com.squareup.spoon;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.io.IOUtils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.GSON;
+
+/** Durations of individual tests, in seconds, as observed by previous executions. */
+final class TestDurationHistory {
+    private final Map<String, Long> durations;
+
+    TestDurationHistory(Map<String, Long> durations) {
+        this.durations = durations;
+    }
+
+    /** Read the history from {@code file}. A missing or unreadable file yields an empty history. */
+    static TestDurationHistory load(File file) {
+        checkNotNull(file);
+        Map<String, Long> durations = new TreeMap<String, Long>();
+        if (file.exists()) {
+            FileReader reader = null;
+            try {
+                reader = new FileReader(file);
+                Map<String, Long> saved = GSON.fromJson(reader, new TypeToken<Map<String, Long>>() {
+                }.getType());
+                if (saved != null) {
+                    durations.putAll(saved);
+                }
+            } catch (IOException e) {
+                logInfo("Unable to read test durations from %s: %s", file, e.getMessage());
+            } catch (JsonParseException e) {
+                logInfo("Unable to parse test durations from %s: %s", file, e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+        return new TestDurationHistory(durations);
+    }
+
+    /** Write the history to {@code file}. */
+    void save(File file) {
+        checkNotNull(file);
+        FileWriter writer = null;
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            writer = new FileWriter(file);
+            GSON.toJson(durations, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write test durations to " + file, e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Replace the durations of every test which passed or failed in {@code summary}. Errors are
+     * left out, since tests which never ran or whose process died get one with a made-up duration.
+     * When a test ran on more than one device the slowest one is kept.
+     */
+    void record(SpoonSummary summary) {
+        Map<String, Long> latest = new TreeMap<String, Long>();
+        for (DeviceResult result : summary.getResults().values()) {
+            for (Map.Entry<DeviceTest, DeviceTestResult> entry : result.getTestResults().entrySet()) {
+                long duration = entry.getValue().getDuration();
+                if (duration < 0 || entry.getValue().getStatus() == DeviceTestResult.Status.ERROR) {
+                    continue;
+                }
+                String key = entry.getKey().toString();
+                Long previous = latest.get(key);
+                if (previous == null || previous < duration) {
+                    latest.put(key, duration);
+                }
+            }
+        }
+        durations.putAll(latest);
+    }
+
+    /** Duration of {@code test} in seconds, or {@code defaultEstimate} if it never ran before. */
+    long estimate(DeviceTest test, long defaultEstimate) {
+        Long duration = durations.get(test.toString());
+        return duration != null ? duration : defaultEstimate;
+    }
+
+    /** Number of tests with a known duration. */
+    int size() {
+        return durations.size();
+    }
+}
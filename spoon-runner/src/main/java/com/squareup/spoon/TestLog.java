@@ -0,0 +1,68 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** The log of a single test, a range of its device's {@link LogStore} read as it is iterated. */
+public final class TestLog implements Iterable<LogCatMessage> {
+    static final TestLog EMPTY = new TestLog(null, 0, 0);
+
+    private final LogStore store;
+    private final int start;
+    private final int end;
+
+    TestLog(LogStore store, int start, int end) {
+        this.store = store;
+        this.start = start;
+        this.end = end;
+    }
+
+    LogStore getStore() {
+        return store;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    public boolean isEmpty() {
+        return start == end;
+    }
+
+    @Override
+    public Iterator<LogCatMessage> iterator() {
+        return new Iterator<LogCatMessage>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public LogCatMessage next() {
+                if (next >= end) { throw new NoSuchElementException(); }
+                try {
+                    return store.get(next++);
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to read log from " + store.getFile(), e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,138 @@
+package com.squareup.spoon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.squareup.spoon.SpoonLogger.logError;
+import static com.squareup.spoon.SpoonLogger.logInfo;
+import static com.squareup.spoon.SpoonUtils.createPrivateDirectory;
+import static com.squareup.spoon.SpoonUtils.userDirectory;
+
+/**
+ * Limits how many bulk transfers (installs, pushes and pulls) run at the same time on a group of
+ * devices, typically those sharing a USB bus or hub. Each slot is a lock file in a directory shared
+ * by every Spoon process of this user, so device processes and concurrent executions honor the
+ * same limit.
+ * <p>
+ * Transfers which keep a device from starting its tests look for a free slot far more often than
+ * those made after the tests, so they win nearly every race for a slot.
+ */
+final class TransferScheduler {
+    /** Group of devices which were not assigned one. */
+    static final String DEFAULT_GROUP = "default";
+
+    enum Priority {
+        /** The device cannot start its tests before this transfer is done. */
+        BLOCKING(20),
+        /** The device is done running tests. */
+        BACKGROUND(250);
+
+        private final long pollMillis;
+
+        Priority(long pollMillis) {
+            this.pollMillis = pollMillis;
+        }
+    }
+
+    /** Slots held by this process. File locks are per process so these are tracked separately. */
+    private static final Set<String> HELD = Collections.synchronizedSet(new HashSet<String>());
+
+    private final File directory;
+    private final String group;
+    private final int limit;
+
+    /**
+     * @param limit
+     *            Maximum number of concurrent transfers in {@code group}, or {@code 0} for no limit.
+     */
+    TransferScheduler(File directory, String group, int limit) {
+        checkNotNull(directory);
+        checkNotNull(group);
+        checkArgument(limit >= 0, "Transfer limit must not be negative.");
+        this.directory = directory;
+        this.group = group.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.limit = limit;
+    }
+
+    /** Slots shared by all executions of this user, in a directory only they can access. */
+    static TransferScheduler forGroup(String group, int limit) {
+        return new TransferScheduler(new File(userDirectory(), "transfers"), group, limit);
+    }
+
+    /**
+     * Wait for a free slot. The returned slot must be released once the transfer is done. If the
+     * slots cannot be locked the transfer goes ahead without one.
+     */
+    Slot acquire(Priority priority) throws InterruptedException {
+        long start = System.nanoTime();
+        if (limit == 0) {
+            return new Slot(null, null, 0);
+        }
+        try {
+            createPrivateDirectory(directory);
+        } catch (IOException e) {
+            logError("Unable to create transfer slots in %s, not limiting transfers: %s", directory, e.getMessage());
+            return new Slot(null, null, 0);
+        }
+        while (true) {
+            for (int i = 0; i < limit; i++) {
+                String path = new File(directory, group + "-" + i + ".lock").getAbsolutePath();
+                if (!HELD.add(path)) {
+                    continue;
+                }
+                RandomAccessFile file = null;
+                FileLock lock = null;
+                try {
+                    file = new RandomAccessFile(path, "rw");
+                    lock = file.getChannel().tryLock();
+                } catch (IOException e) {
+                    logInfo("Unable to lock transfer slot %s, not limiting transfers: %s", path, e.getMessage());
+                    return new Slot(null, null, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                } finally {
+                    if (lock == null) {
+                        IOUtils.closeQuietly(file);
+                        HELD.remove(path);
+                    }
+                }
+                if (lock != null) {
+                    return new Slot(path, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+            Thread.sleep(priority.pollMillis);
+        }
+    }
+
+    /** Permission to run a single transfer. */
+    static final class Slot {
+        private final String path;
+        private final RandomAccessFile file;
+        private final long waitMillis;
+
+        private Slot(String path, RandomAccessFile file, long waitMillis) {
+            this.path = path;
+            this.file = file;
+            this.waitMillis = waitMillis;
+        }
+
+        /** Milliseconds spent waiting for this slot. */
+        long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /** Hand the slot to the next transfer. Closing the file releases its lock. */
+        void release() {
+            if (file == null) { return; }
+            IOUtils.closeQuietly(file);
+            HELD.remove(path);
+        }
+    }
+}
@@ -82,8 +82,9 @@ final class HtmlDevice {
             }
             String animatedGif = HtmlUtils.createRelativeUri(result.getAnimatedGif(), output);
             HtmlUtils.ExceptionInfo exception = HtmlUtils.processStackTrace(result.getException());
+            boolean hasLog = !result.getLog().isEmpty();
             return new TestResult(serial, className, methodName, classSimpleName, prettyMethodName, testId, status, screenshots,
-                animatedGif, exception);
+                animatedGif, exception, hasLog);
         }
 
         public final String serial;
@@ -97,9 +98,11 @@ final class HtmlDevice {
         public final List<HtmlUtils.Screenshot> screenshots;
         public final String animatedGif;
         public final HtmlUtils.ExceptionInfo exception;
+        public final boolean hasLog;
 
         TestResult(String serial, String className, String methodName, String classSimpleName, String prettyMethodName, String testId,
-            String status, List<HtmlUtils.Screenshot> screenshots, String animatedGif, HtmlUtils.ExceptionInfo exception) {
+            String status, List<HtmlUtils.Screenshot> screenshots, String animatedGif, HtmlUtils.ExceptionInfo exception,
+            boolean hasLog) {
             this.serial = serial;
             this.className = className;
             this.methodName = methodName;
@@ -111,6 +114,7 @@ final class HtmlDevice {
             this.screenshots = screenshots;
             this.animatedGif = animatedGif;
             this.exception = exception;
+            this.hasLog = hasLog;
         }
 
         @Override
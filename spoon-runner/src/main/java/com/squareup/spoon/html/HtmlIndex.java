@@ -20,10 +20,12 @@ final class HtmlIndex {
     static HtmlIndex from(SpoonSummary summary) {
         int testsRun = 0;
         int totalSuccess = 0;
+        int shardCount = 0;
         Set<DeviceTest> tests = new LinkedHashSet<DeviceTest>();
         List<Device> devices = new ArrayList<Device>();
         for (Map.Entry<String, DeviceResult> result : summary.getResults().entrySet()) {
             devices.add(Device.from(result.getKey(), result.getValue()));
+            shardCount = Math.max(shardCount, result.getValue().getNumShards());
             Map<DeviceTest, DeviceTestResult> testResults = result.getValue().getTestResults();
             testsRun += testResults.size();
             for (Map.Entry<DeviceTest, DeviceTestResult> entry : testResults.entrySet()) {
@@ -44,6 +46,10 @@ final class HtmlIndex {
         String totalTestsRun = testsRun + (testSize != null ? " " + testSize.name().toLowerCase() : "") + " test"
             + (testsRun != 1 ? "s" : "");
         String totalDevices = deviceCount + " device" + (deviceCount != 1 ? "s" : "");
+        if (shardCount > 0) {
+            // Shards together make up a single run of the suite.
+            totalDevices = shardCount + " shard" + (shardCount != 1 ? "s" : "");
+        }
 
         StringBuilder subtitle = new StringBuilder();
         subtitle.append(totalTestsRun).append(" run across ").append(totalDevices);
@@ -77,19 +83,39 @@ final class HtmlIndex {
             DeviceDetails details = result.getDeviceDetails();
             String name = (details != null) ? details.getName() : serial;
             boolean executionFailed = testResults.isEmpty() && !result.getExceptions().isEmpty();
-            return new Device(serial, name, testResults, executionFailed);
+            return new Device(serial, name, testResults, executionFailed, shardSummary(result));
+        }
+
+        /** Describe the slice of the suite run on a device, or {@code null} if it ran everything. */
+        private static String shardSummary(DeviceResult result) {
+            if (result.getNumShards() == 0) { return null; }
+            int testsRun = result.getTestResults().size();
+            int testsFailed = 0;
+            for (DeviceTestResult testResult : result.getTestResults().values()) {
+                if (testResult.getStatus() != Status.PASS) {
+                    testsFailed += 1;
+                }
+            }
+            return "Shard " + (result.getShardIndex() + 1) + " of " + result.getNumShards() + ": " + testsRun + " test"
+                + (testsRun != 1 ? "s" : "") + ", " + testsFailed + " failing";
         }
 
         public final String serial;
         public final String name;
         public final List<TestResult> testResults;
         public final boolean executionFailed;
+        public final String shard;
 
         Device(String serial, String name, List<TestResult> testResults, boolean executionFailed) {
+            this(serial, name, testResults, executionFailed, null);
+        }
+
+        Device(String serial, String name, List<TestResult> testResults, boolean executionFailed, String shard) {
             this.serial = serial;
             this.name = name;
             this.testResults = testResults;
             this.executionFailed = executionFailed;
+            this.shard = shard;
         }
 
         @Override
@@ -1,13 +1,31 @@
 package com.squareup.spoon.html;
 
+import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.logcat.LogCatMessage;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
+import com.google.gson.stream.JsonWriter;
 import com.squareup.spoon.DeviceTest;
 import com.squareup.spoon.DeviceTestResult;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
 
-/** Model for representing a {@code log.html} page. */
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * Model for representing a {@code log.html} page. The log itself is not part of the page but a
+ * script next to it, which the page loads and unpacks in the browser.
+ */
 final class HtmlLog {
+    /** Extension of the script holding the log of a test. */
+    static final String SCRIPT_EXTENSION = ".log.js";
+
     public static HtmlLog from(String name, DeviceTest test, DeviceTestResult result) {
         String status;
         switch (result.getStatus()) {
@@ -27,58 +45,54 @@ final class HtmlLog {
         String title = HtmlUtils.prettifyMethodName(test.getMethodName());
         String subtitle = "Test " + status + " in " + HtmlUtils.humanReadableDuration(result.getDuration()) + " on " + name;
 
-        List<LogEntry> log = new ArrayList<LogEntry>();
-        for (LogCatMessage message : result.getLog()) {
-            log.add(LogEntry.from(message));
-        }
+        String script = test.getMethodName() + SCRIPT_EXTENSION;
+        return new HtmlLog(title, subtitle, script, result.getLog().size());
+    }
 
-        return new HtmlLog(title, subtitle, log);
+    /**
+     * Write {@code log} to {@code file} as gzipped JSON lines, one {@code [time, level, tag,
+     * message]} array each, in a script passing them base64 encoded to the {@code spoonLog}
+     * function of the log page. Unlike the data itself a script can be loaded by a report opened
+     * from disk.
+     *
+     * @return Size of the JSON before compression.
+     */
+    static long writeScript(Iterable<LogCatMessage> log, File file) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CountingOutputStream json = new CountingOutputStream(new GZIPOutputStream(compressed));
+        Writer lines = new BufferedWriter(new OutputStreamWriter(json, UTF_8));
+        try {
+            JsonWriter writer = new JsonWriter(lines);
+            // A document per line.
+            writer.setLenient(true);
+            for (LogCatMessage message : log) {
+                LogLevel level = message.getLogLevel();
+                writer.beginArray() //
+                    .value(message.getTime()) //
+                    .value(level != null ? level.getStringValue() : "") //
+                    .value(message.getTag()) //
+                    .value(message.getMessage()) //
+                    .endArray();
+                lines.write('\n');
+            }
+            writer.flush();
+        } finally {
+            lines.close();
+        }
+        file.getParentFile().mkdirs();
+        Files.write("spoonLog(\"" + BaseEncoding.base64().encode(compressed.toByteArray()) + "\");\n", file, UTF_8);
+        return json.getCount();
     }
 
     public final String title;
     public final String subtitle;
-    public final List<LogEntry> log;
+    public final String script;
+    public final int lines;
 
-    HtmlLog(String title, String subtitle, List<LogEntry> log) {
+    HtmlLog(String title, String subtitle, String script, int lines) {
         this.title = title;
         this.subtitle = subtitle;
-        this.log = log;
-    }
-
-    static class LogEntry {
-        static LogEntry from(LogCatMessage message) {
-            String rowClass;
-            switch (message.getLogLevel()) {
-            case ERROR:
-                rowClass = "error";
-                break;
-            case WARN:
-                rowClass = "warning";
-                break;
-            case INFO:
-                rowClass = "info";
-                break;
-            default:
-                rowClass = "";
-            }
-
-            String timestamp = message.getTime();
-            String level = message.getLogLevel().getStringValue();
-            return new LogEntry(rowClass, timestamp, level, message.getTag(), message.getMessage());
-        }
-
-        public final String rowClass;
-        public final String timestamp;
-        public final String level;
-        public final String tag;
-        public final String message;
-
-        LogEntry(String rowClass, String timestamp, String level, String tag, String message) {
-            this.rowClass = rowClass;
-            this.timestamp = timestamp;
-            this.level = level;
-            this.tag = tag;
-            this.message = message;
-        }
+        this.script = script;
+        this.lines = lines;
     }
 }
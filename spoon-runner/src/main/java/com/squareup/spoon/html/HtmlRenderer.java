@@ -10,6 +10,7 @@ import com.squareup.spoon.DeviceResult;
 import com.squareup.spoon.DeviceTest;
 import com.squareup.spoon.DeviceTestResult;
 import com.squareup.spoon.SpoonSummary;
+import com.squareup.spoon.TestLog;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
@@ -33,9 +34,18 @@ public final class HtmlRenderer {
             "jquery.min.js", "jquery.nivo.slider.pack.js", "nivo-slider.css", "icon-animated.png", "icon-devices.png", "icon-log.png",
             "ceiling_android.png", "arrows.png", "bullets.png", "loading.gif" };
 
+    /** Templates are compiled once and cached by the factory for every later render. */
+    private static final MustacheFactory MUSTACHE_FACTORY = new DefaultMustacheFactory();
+    /** Stylesheet compiled from {@code spoon.less}, computed on first use. */
+    private static volatile String compiledCss;
+
     private final SpoonSummary summary;
     private final Gson gson;
     private final File output;
+    private int logPages;
+    private int logsSkipped;
+    private long logBytes;
+    private long logScriptBytes;
 
     public HtmlRenderer(SpoonSummary summary, Gson gson, File output) {
         this.summary = summary;
@@ -46,11 +56,13 @@ public final class HtmlRenderer {
     public void render() {
         output.mkdirs();
 
-        copyStaticAssets();
+        if (!new File(output, STATIC_DIRECTORY).isDirectory()) {
+            copyStaticAssets(output);
+        }
         generateCssFromLess();
         writeResultJson();
 
-        MustacheFactory mustacheFactory = new DefaultMustacheFactory();
+        MustacheFactory mustacheFactory = MUSTACHE_FACTORY;
         generateTvHtml(mustacheFactory);
         generateIndexHtml(mustacheFactory);
         generateDeviceHtml(mustacheFactory);
@@ -59,9 +71,30 @@ public final class HtmlRenderer {
         generateAppDataHtml(mustacheFactory);
     }
 
-    private void copyStaticAssets() {
+    /** Number of tests whose log got a page. */
+    public int getLogPages() {
+        return logPages;
+    }
+
+    /** Number of tests without a log, which got no page. */
+    public int getLogsSkipped() {
+        return logsSkipped;
+    }
+
+    /** Size of the logs as JSON. */
+    public long getLogBytes() {
+        return logBytes;
+    }
+
+    /** Size of the log scripts as written, which hold the compressed logs base64 encoded. */
+    public long getLogScriptBytes() {
+        return logScriptBytes;
+    }
+
+    /** Copy the assets shared by all pages. This can happen ahead of rendering. */
+    public static void copyStaticAssets(File output) {
         File statics = new File(output, STATIC_DIRECTORY);
-        statics.mkdir();
+        statics.mkdirs();
         for (String staticAsset : STATIC_ASSETS) {
             copyStaticToOutput(staticAsset, statics);
         }
@@ -69,9 +102,13 @@ public final class HtmlRenderer {
 
     private void generateCssFromLess() {
         try {
-            LessCompiler compiler = new LessCompiler();
-            String less = Resources.toString(getClass().getResource("/spoon.less"), UTF_8);
-            String css = compiler.compile(less);
+            String css = compiledCss;
+            if (css == null) {
+                LessCompiler compiler = new LessCompiler();
+                String less = Resources.toString(getClass().getResource("/spoon.less"), UTF_8);
+                css = compiler.compile(less);
+                compiledCss = css;
+            }
             File cssFile = FileUtils.getFile(output, STATIC_DIRECTORY, "spoon.css");
             FileUtils.writeStringToFile(cssFile, css);
         } catch (Exception e) {
@@ -139,13 +176,26 @@ public final class HtmlRenderer {
             String name = (details != null) ? details.getName() : serial;
             for (Map.Entry<DeviceTest, DeviceTestResult> entry : result.getTestResults().entrySet()) {
                 DeviceTest test = entry.getKey();
+                TestLog log = entry.getValue().getLog();
+                if (log.isEmpty()) {
+                    logsSkipped += 1;
+                    continue;
+                }
+                File directory = FileUtils.getFile(output, "logs", serial, test.getClassName());
+                File script = new File(directory, test.getMethodName() + HtmlLog.SCRIPT_EXTENSION);
+                try {
+                    logBytes += HtmlLog.writeScript(log, script);
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to write log of " + test + " to " + script, e);
+                }
+                logScriptBytes += script.length();
+                logPages += 1;
                 HtmlLog scope = HtmlLog.from(name, test, entry.getValue());
-                File file = FileUtils.getFile(output, "logs", serial, test.getClassName(), test.getMethodName() + ".html");
-                renderMustacheToFile(mustache, scope, file);
+                renderMustacheToFile(mustache, scope, new File(directory, test.getMethodName() + ".html"));
             }
         }
     }
-    
+
     private void generateAppDataHtml(MustacheFactory mustacheFactory) {
         Mustache mustache = mustacheFactory.compile("page/appdata.html");
         for (Map.Entry<String, DeviceResult> resultEntry : summary.getResults().entrySet()) {
@@ -83,7 +83,9 @@ final class HtmlTest {
             List<KeyValuePair> serverData = result.getServerData();
             List<KeyValuePair> splitTestData = result.getSplitTestAssignments();
 
-            return new TestResult(name, serial, status, screenshots, animatedGif, exception, userData, serverData, splitTestData);
+            boolean hasLog = !result.getLog().isEmpty();
+            return new TestResult(name, serial, status, screenshots, animatedGif, exception, userData, serverData, splitTestData,
+                hasLog);
         }
 
         public final String name;
@@ -96,9 +98,11 @@ final class HtmlTest {
         public final List<KeyValuePair> userData;
         public final List<KeyValuePair> serverData;
         public final List<KeyValuePair> splitTestData;
+        public final boolean hasLog;
 
         TestResult(String name, String serial, String status, List<HtmlUtils.Screenshot> screenshots, String animatedGif,
-            HtmlUtils.ExceptionInfo exception, List<KeyValuePair> userData, List<KeyValuePair> serverData, List<KeyValuePair> splitTestData) {
+            HtmlUtils.ExceptionInfo exception, List<KeyValuePair> userData, List<KeyValuePair> serverData, List<KeyValuePair> splitTestData,
+            boolean hasLog) {
             this.name = name;
             this.serial = serial;
             this.status = status;
@@ -109,6 +113,7 @@ final class HtmlTest {
             this.userData = userData;
             this.serverData = serverData;
             this.splitTestData = splitTestData;
+            this.hasLog = hasLog;
         }
 
         @Override
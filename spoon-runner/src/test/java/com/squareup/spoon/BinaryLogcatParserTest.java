@@ -0,0 +1,87 @@
+package com.squareup.spoon;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryLogcatParserTest {
+  private final List<String> parsed = new ArrayList<String>();
+  private final List<String> tags = new ArrayList<String>();
+  private final BinaryLogcatParser parser = new BinaryLogcatParser(new BinaryLogcatParser.Listener() {
+    @Override public void entry(BinaryLogcatParser.Entry entry) {
+      parsed.add(entry.pidString() + "/" + entry.tidString() + " " + entry.seconds + "." + entry.nanoseconds + " "
+          + entry.priority + " " + entry.tag + ": " + entry.message());
+      tags.add(entry.tag);
+    }
+  });
+
+  @Test public void parsesEntriesSplitAcrossReads() {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    write(log, 24, 1234, 1235, 100, 500, 4, "TestRunner", "started: testFoo(com.example.FooTest)\n");
+    write(log, 20, 1234, 1236, 101, 0, 6, "App", "boom");
+    write(log, 28, 1234, 1235, 102, 7, 3, "TestRunner", "finished: testFoo(com.example.FooTest)\n");
+    byte[] bytes = log.toByteArray();
+
+    for (int i = 0; i < bytes.length; i += 7) {
+      parser.parse(bytes, i, Math.min(7, bytes.length - i));
+    }
+
+    assertThat(parsed).containsExactly( //
+        "1234/1235 100.500 4 TestRunner: started: testFoo(com.example.FooTest)",
+        "1234/1236 101.0 6 App: boom",
+        "1234/1235 102.7 3 TestRunner: finished: testFoo(com.example.FooTest)");
+    assertThat(tags.get(2)).isSameAs(tags.get(0));
+  }
+
+  @Test public void versionOneHeaders() {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    write(log, 0, 42, 43, 1, 2, 5, "Tag", "message");
+    byte[] bytes = log.toByteArray();
+    parser.parse(bytes, 0, bytes.length);
+    assertThat(parsed).containsExactly("42/43 1.2 5 Tag: message");
+  }
+
+  @Test public void corruptHeaderFails() {
+    byte[] bytes = { 10, 0, 4, 0, 0, 0, 0, 0 };
+    try {
+      parser.parse(bytes, 0, bytes.length);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  /** Write an entry with a header of {@code header} bytes, {@code 0} for the version one header. */
+  static void write(ByteArrayOutputStream log, int header, int pid, int tid, int seconds, int nanoseconds, int priority,
+      String tag, String message) {
+    byte[] tagBytes = tag.getBytes(UTF_8);
+    byte[] messageBytes = message.getBytes(UTF_8);
+    int payload = 1 + tagBytes.length + 1 + messageBytes.length + 1;
+    int headerSize = header == 0 ? 20 : header;
+    byte[] entry = new byte[headerSize + payload];
+    putShort(entry, 0, payload);
+    putShort(entry, 2, header);
+    putInt(entry, 4, pid);
+    putInt(entry, 8, tid);
+    putInt(entry, 12, seconds);
+    putInt(entry, 16, nanoseconds);
+    entry[headerSize] = (byte) priority;
+    System.arraycopy(tagBytes, 0, entry, headerSize + 1, tagBytes.length);
+    System.arraycopy(messageBytes, 0, entry, headerSize + 2 + tagBytes.length, messageBytes.length);
+    log.write(entry, 0, entry.length);
+  }
+
+  private static void putShort(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) value;
+    bytes[offset + 1] = (byte) (value >> 8);
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    putShort(bytes, offset, value);
+    putShort(bytes, offset + 2, value >> 16);
+  }
+}
@@ -0,0 +1,75 @@
+package com.squareup.spoon;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ClassDataSharingTest {
+  private File directory;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon-cds", "");
+    directory.delete();
+  }
+
+  @After public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void firstLaunchRecordsAndOthersWait() {
+    ClassDataSharing sharing = new ClassDataSharing(directory, "a.jar:b.jar");
+    ClassDataSharing.Launch recording = sharing.launch();
+    assertThat(recording.getJvmArguments()).contains("-Xlog:disable", "-Xlog:all=warning:stderr");
+    assertThat(argument(recording, "-XX:ArchiveClassesAtExit=")).isNotNull();
+
+    assertThat(sharing.launch().getJvmArguments()).isEmpty();
+  }
+
+  @Test public void recordedArchiveIsUsedByLaterLaunches() throws IOException {
+    ClassDataSharing sharing = new ClassDataSharing(directory, "a.jar:b.jar");
+    ClassDataSharing.Launch recording = sharing.launch();
+    String pendingPath = argument(recording, "-XX:ArchiveClassesAtExit=");
+    Files.write("archive", new File(pendingPath), UTF_8);
+    recording.finished(0);
+
+    ClassDataSharing.Launch launch = sharing.launch();
+    assertThat(argument(launch, "-XX:SharedArchiveFile=")).endsWith(".jsa");
+  }
+
+  @Test public void emptyArchiveIsDiscarded() {
+    ClassDataSharing sharing = new ClassDataSharing(directory, "a.jar:b.jar");
+    sharing.launch().finished(0);
+
+    // A JVM without AppCDS leaves the archive empty, so the next launch tries again.
+    assertThat(argument(sharing.launch(), "-XX:ArchiveClassesAtExit=")).isNotNull();
+  }
+
+  @Test public void rebuiltJarGetsANewArchive() throws IOException {
+    File jar = new File(directory, "app.jar");
+    directory.mkdirs();
+    Files.write("one", jar, UTF_8);
+    String first = argument(new ClassDataSharing(directory, jar.getPath()).launch(), "-XX:ArchiveClassesAtExit=");
+
+    Files.write("rebuilt", jar, UTF_8);
+    String second = argument(new ClassDataSharing(directory, jar.getPath()).launch(), "-XX:ArchiveClassesAtExit=");
+
+    assertThat(second).isNotNull().isNotEqualTo(first);
+  }
+
+  /** Value of the JVM argument of {@code launch} starting with {@code prefix}, or {@code null}. */
+  private static String argument(ClassDataSharing.Launch launch, String prefix) {
+    for (String argument : launch.getJvmArguments()) {
+      if (argument.startsWith(prefix)) {
+        return argument.substring(prefix.length());
+      }
+    }
+    return null;
+  }
+}
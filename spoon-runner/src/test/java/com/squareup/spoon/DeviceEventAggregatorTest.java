@@ -0,0 +1,64 @@
+package com.squareup.spoon;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.squareup.spoon.DeviceTestResult.Status;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class DeviceEventAggregatorTest {
+  private static final DeviceTest PASSING = new DeviceTest("com.example.LoginTest", "testLogin");
+  private static final DeviceTest FAILING = new DeviceTest("com.example.LoginTest", "testLogout");
+  private static final DeviceTest CRASHING = new DeviceTest("com.example.OrderTest", "testOrder");
+
+  @Test public void reportedResultWins() {
+    DeviceResult reported = new DeviceResult.Builder().build();
+    DeviceEventAggregator aggregator = new DeviceEventAggregator("serial", false);
+    aggregator.accept(DeviceEvent.testStarted(PASSING));
+    aggregator.accept(DeviceEvent.testEnded(PASSING));
+    aggregator.accept(DeviceEvent.result(reported));
+    assertThat(aggregator.getResult(0)).isSameAs(reported);
+  }
+
+  @Test public void crashKeepsEventsReceivedSoFar() {
+    DeviceEventAggregator aggregator = new DeviceEventAggregator("serial", false);
+    aggregator.accept(DeviceEvent.testStarted(PASSING));
+    aggregator.accept(DeviceEvent.testEnded(PASSING));
+    aggregator.accept(DeviceEvent.testStarted(FAILING));
+    aggregator.accept(DeviceEvent.testFailed(FAILING, "java.lang.AssertionError: expected\n\tat com.example.LoginTest.testLogout(LoginTest.java:10)"));
+    aggregator.accept(DeviceEvent.testEnded(FAILING));
+    aggregator.accept(DeviceEvent.testStarted(CRASHING));
+
+    DeviceResult result = aggregator.getResult(1);
+    assertThat(result.getTestResults()).hasSize(3);
+    assertThat(result.getTestResults().get(PASSING).getStatus()).isEqualTo(Status.PASS);
+    assertThat(result.getTestResults().get(FAILING).getStatus()).isEqualTo(Status.FAIL);
+    assertThat(result.getTestResults().get(CRASHING).getStatus()).isEqualTo(Status.ERROR);
+    assertThat(result.getExceptions()).hasSize(1);
+  }
+
+  @Test public void strayOutputIsNotTrustedAsAFrame() {
+    byte[] stray = "OpenJDK 64-Bit Server VM warning: Sharing is only supported for boot loader classes\n".getBytes(UTF_8);
+    try {
+      DeviceEvent.readFrom(new DataInputStream(new ByteArrayInputStream(stray)));
+      fail();
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).startsWith("Not an event frame");
+    }
+  }
+
+  @Test public void lostStreamIsReported() {
+    DeviceEventAggregator aggregator = new DeviceEventAggregator("serial", false);
+    aggregator.accept(DeviceEvent.testStarted(PASSING));
+    aggregator.accept(DeviceEvent.testEnded(PASSING));
+    aggregator.streamLost("Not an event frame.");
+
+    DeviceResult result = aggregator.getResult(0);
+    assertThat(result.getTestResults()).hasSize(1);
+    assertThat(result.getExceptions()).hasSize(2);
+  }
+}
@@ -0,0 +1,44 @@
+package com.squareup.spoon;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DevicePreparationTest {
+  @Test public void savedStateIsRestored() {
+    ShellBatch batch = new ShellBatch();
+    DevicePreparation preparation = new DevicePreparation(null, batch);
+    String script = batch.script();
+
+    batch.parse(end(script, 0, 1)
+        + "1.0" + end(script, 1, 0)
+        + "null" + end(script, 2, 0)
+        + "0.5" + end(script, 3, 0));
+
+    String restoration = preparation.restoration().script();
+    assertThat(restoration).contains("settings put global window_animation_scale 1.0;")
+        .contains("settings delete global transition_animation_scale;")
+        .contains("settings put global animator_duration_scale 0.5;")
+        .contains("&& input keyevent KEYCODE_POWER;");
+  }
+
+  @Test public void unknownStateIsLeftAlone() {
+    ShellBatch batch = new ShellBatch();
+    DevicePreparation preparation = new DevicePreparation(null, batch);
+    String script = batch.script();
+
+    batch.parse(end(script, 0, 0)
+        + "1.0; reboot" + end(script, 1, 0)
+        + "Unknown command: get" + end(script, 2, 255));
+
+    String restoration = preparation.restoration().script();
+    assertThat(restoration).isEmpty();
+  }
+
+  /** What the shell prints after command {@code index} of {@code script} exits with {@code exitCode}. */
+  private static String end(String script, int index, int exitCode) {
+    int start = script.indexOf("SPOON-");
+    String marker = script.substring(start, script.indexOf(' ', start));
+    return "\n" + marker + " " + index + " " + exitCode + "\n";
+  }
+}
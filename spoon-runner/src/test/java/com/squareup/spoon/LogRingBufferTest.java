@@ -0,0 +1,75 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.android.ddmlib.Log.LogLevel.INFO;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LogRingBufferTest {
+  @Test public void copiesMessagesSinceMark() {
+    LogRingBuffer buffer = new LogRingBuffer(4);
+    buffer.add(message("before"));
+    long mark = buffer.mark();
+    buffer.add(message("one"));
+    buffer.add(message("two"));
+
+    LogRingBuffer.Snapshot snapshot = buffer.since(mark);
+    assertThat(texts(snapshot.getMessages())).containsExactly("one", "two");
+    assertThat(snapshot.getLost()).isEqualTo(0);
+    assertThat(buffer.getOverflow()).isEqualTo(0);
+  }
+
+  @Test public void overwritesOldestWhenFull() {
+    LogRingBuffer buffer = new LogRingBuffer(3);
+    long mark = buffer.mark();
+    for (int i = 0; i < 5; i++) {
+      buffer.add(message("m" + i));
+    }
+
+    LogRingBuffer.Snapshot snapshot = buffer.since(mark);
+    assertThat(texts(snapshot.getMessages())).containsExactly("m2", "m3", "m4");
+    assertThat(snapshot.getLost()).isEqualTo(2);
+    assertThat(buffer.getOverflow()).isEqualTo(2);
+  }
+
+  @Test public void concurrentWriterNeverYieldsMessagesOutOfOrder() throws InterruptedException {
+    final LogRingBuffer buffer = new LogRingBuffer(64);
+    final int count = 200000;
+    final List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+    for (int i = 0; i < count; i++) {
+      messages.add(message(Integer.toString(i)));
+    }
+    Thread writer = new Thread(new Runnable() {
+      @Override public void run() {
+        for (LogCatMessage message : messages) {
+          buffer.add(message);
+        }
+      }
+    });
+    writer.start();
+    while (writer.isAlive()) {
+      long mark = Math.max(0, buffer.mark() - 32);
+      LogRingBuffer.Snapshot snapshot = buffer.since(mark);
+      long expected = mark + snapshot.getLost();
+      for (LogCatMessage message : snapshot.getMessages()) {
+        assertThat(Long.parseLong(message.getMessage())).isEqualTo(expected++);
+      }
+    }
+    writer.join();
+  }
+
+  private static LogCatMessage message(String text) {
+    return new LogCatMessage(INFO, "1", "1", "app", "Tag", "01-01 00:00:00.000", text);
+  }
+
+  private static List<String> texts(List<LogCatMessage> messages) {
+    List<String> texts = new ArrayList<String>();
+    for (LogCatMessage message : messages) {
+      texts.add(message.getMessage());
+    }
+    return texts;
+  }
+}
@@ -0,0 +1,74 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.android.ddmlib.Log.LogLevel.INFO;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LogSegmenterTest {
+  private static final DeviceTest FOO = new DeviceTest("com.example.FooTest", "testFoo");
+  private static final DeviceTest BAR = new DeviceTest("com.example.FooTest", "testBar");
+
+  private File directory;
+  private LogStore store;
+  private LogSegmenter segmenter;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon-segmenter", "");
+    directory.delete();
+    directory.mkdirs();
+    store = new LogStore(new File(directory, "device.log"));
+    segmenter = new LogSegmenter(store);
+  }
+
+  @After public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void routesMessagesOfTheTestProcessAsTheyArrive() throws IOException {
+    segmenter.addAll(Arrays.asList(message("100", "App", "before"),
+        message("100", "TestRunner", "started: testFoo(com.example.FooTest)"), message("100", "App", "hello")));
+    assertThat(segmenter.getLogs().get(FOO).size()).isEqualTo(2);
+
+    segmenter.addAll(Arrays.asList(message("200", "System", "noise"),
+        message("100", "TestRunner", "finished: testFoo(com.example.FooTest)"), message("100", "App", "between tests")));
+    store.close();
+    Map<DeviceTest, TestLog> logs = segmenter.getLogs();
+    assertThat(logs).hasSize(1);
+    assertThat(texts(logs.get(FOO))).containsExactly("started: testFoo(com.example.FooTest)", "hello",
+        "finished: testFoo(com.example.FooTest)");
+    assertThat(store.size()).isEqualTo(3);
+  }
+
+  @Test public void startEndsATestWhoseEndWasMissed() throws IOException {
+    segmenter.addAll(Arrays.asList(message("100", "TestRunner", "started: testFoo(com.example.FooTest)"),
+        message("300", "TestRunner", "started: testBar(com.example.FooTest)"), message("300", "App", "hello")));
+    store.close();
+
+    Map<DeviceTest, TestLog> logs = segmenter.getLogs();
+    assertThat(texts(logs.get(FOO))).containsExactly("started: testFoo(com.example.FooTest)");
+    assertThat(texts(logs.get(BAR))).containsExactly("started: testBar(com.example.FooTest)", "hello");
+  }
+
+  private static List<String> texts(TestLog log) {
+    List<String> texts = new ArrayList<String>();
+    for (LogCatMessage message : log) {
+      texts.add(message.getMessage());
+    }
+    return texts;
+  }
+
+  private static LogCatMessage message(String pid, String tag, String text) {
+    return new LogCatMessage(INFO, pid, pid, "app", tag, "01-01 00:00:00.000", text);
+  }
+}
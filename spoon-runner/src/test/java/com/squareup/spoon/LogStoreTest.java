@@ -0,0 +1,65 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.android.ddmlib.Log.LogLevel.ERROR;
+import static com.android.ddmlib.Log.LogLevel.INFO;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LogStoreTest {
+  private File directory;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon-logstore", "");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After public void tearDown() throws IOException {
+    LogStore.release(directory);
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void messagesRoundTrip() throws IOException {
+    LogStore store = new LogStore(new File(directory, "device.log"));
+    assertThat(store.append(new LogCatMessage(INFO, "100", "101", "com.example", "App", "05-13 16:02:09.007", "h\u00e9llo")))
+        .isEqualTo(0);
+    assertThat(store.append(new LogCatMessage(ERROR, "100", "102", "com.example", "App", "yesterday", ""))).isEqualTo(1);
+    store.close();
+
+    assertMessage(store.get(0), "INFO 100/101 com.example App 05-13 16:02:09.007: h\u00e9llo");
+    assertMessage(store.get(1), "ERROR 100/102 com.example App yesterday: ");
+  }
+
+  @Test public void openedByAnotherProcess() throws IOException {
+    File file = new File(directory, "device.log");
+    LogStore written = new LogStore(file);
+    for (int i = 0; i < 3000; i++) {
+      written.append(new LogCatMessage(INFO, "100", "100", "?", "Tag" + i % 7, "01-01 00:00:00.000", "message " + i));
+    }
+    written.close();
+
+    LogStore store = LogStore.open(file);
+    assertThat(LogStore.open(file)).isSameAs(store);
+    assertThat(store.size()).isEqualTo(3000);
+    assertMessage(store.get(2999), "INFO 100/100 ? Tag3 01-01 00:00:00.000: message 2999");
+  }
+
+  @Test public void nothingLogged() throws IOException {
+    File file = new File(directory, "device.log");
+    new LogStore(file).close();
+    assertThat(file.exists()).isFalse();
+    assertThat(LogStore.open(file).size()).isEqualTo(0);
+  }
+
+  private static void assertMessage(LogCatMessage message, String expected) {
+    assertThat(message.getLogLevel() + " " + message.getPid() + "/" + message.getTid() + " " + message.getAppName() + " "
+        + message.getTag() + " " + message.getTime() + ": " + message.getMessage()).isEqualTo(expected);
+  }
+}
@@ -0,0 +1,52 @@
+package com.squareup.spoon;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.logcat.LogCatListener;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class LogcatReceiverTest {
+  private final IDevice device = mock(IDevice.class);
+  private final LogCatListener listener = mock(LogCatListener.class);
+
+  @Test public void olderDevicesReceiveEverything() {
+    LogcatReceiver receiver =
+        new LogcatReceiver(device, 19, Collections.<String>emptyList(), "com.example", false, listener);
+    assertThat(receiver.command(null, null)).isEqualTo("logcat -v long");
+  }
+
+  @Test public void filtersKeepTestBoundaries() {
+    LogcatReceiver receiver =
+        new LogcatReceiver(device, 23, Arrays.asList("MyApp:D", "OkHttp:W"), "com.example", false, listener);
+    assertThat(receiver.command(null, null)) //
+        .isEqualTo("logcat -v long -T 1 'MyApp:D' 'OkHttp:W' TestRunner:I '*:S'");
+  }
+
+  @Test public void resumesFromTimeForProcess() {
+    LogcatReceiver receiver =
+        new LogcatReceiver(device, 24, Collections.<String>emptyList(), "com.example", false, listener);
+    assertThat(receiver.command("1234", "01-02 03:04:05.678")) //
+        .isEqualTo("logcat -v long -T '01-02 03:04:05.678' --pid=1234");
+  }
+
+  @Test public void binaryOnlyWhereSupported() {
+    LogcatReceiver older =
+        new LogcatReceiver(device, 23, Collections.<String>emptyList(), null, true, listener);
+    assertThat(older.command(null, null)).isEqualTo("logcat -v long -T 1");
+    LogcatReceiver newer =
+        new LogcatReceiver(device, 24, Collections.<String>emptyList(), null, true, listener);
+    assertThat(newer.command(null, null)).isEqualTo("logcat -B -T 1");
+  }
+
+  @Test public void filterSpecs() {
+    assertThat(LogcatReceiver.FILTER_SPEC.matcher("MyApp:D").matches()).isTrue();
+    assertThat(LogcatReceiver.FILTER_SPEC.matcher("*:S").matches()).isTrue();
+    assertThat(LogcatReceiver.FILTER_SPEC.matcher("MyApp").matches()).isFalse();
+    assertThat(LogcatReceiver.FILTER_SPEC.matcher("My App:D").matches()).isFalse();
+    assertThat(LogcatReceiver.FILTER_SPEC.matcher("MyApp:X").matches()).isFalse();
+  }
+}
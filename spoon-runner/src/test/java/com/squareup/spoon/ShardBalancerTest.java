@@ -0,0 +1,79 @@
+package com.squareup.spoon;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.spoon.adapters.TestIdentifierAdapter.CUCUMBER;
+import static com.squareup.spoon.adapters.TestIdentifierAdapter.JUNIT;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ShardBalancerTest {
+  private static final DeviceTest SLOW = new DeviceTest("com.example.SlowTest", "testSlow");
+  private static final DeviceTest MEDIUM = new DeviceTest("com.example.MediumTest", "testMedium");
+  private static final DeviceTest FAST_1 = new DeviceTest("com.example.FastTest", "testOne");
+  private static final DeviceTest FAST_2 = new DeviceTest("com.example.FastTest", "testTwo");
+  private static final DeviceTest UNKNOWN = new DeviceTest("com.example.NewTest", "testNew");
+
+  private static TestDurationHistory history() {
+    Map<String, Long> durations = new HashMap<String, Long>();
+    durations.put(SLOW.toString(), 60L);
+    durations.put(MEDIUM.toString(), 30L);
+    durations.put(FAST_1.toString(), 15L);
+    durations.put(FAST_2.toString(), 15L);
+    return new TestDurationHistory(durations);
+  }
+
+  @Test public void slowestTestsAreSpreadFirst() {
+    List<List<DeviceTest>> shards =
+        ShardBalancer.balance(Arrays.asList(FAST_1, FAST_2, MEDIUM, SLOW), 2, history(), JUNIT, 5);
+    assertThat(shards).hasSize(2);
+    assertThat(shards.get(0)).containsExactly(SLOW);
+    assertThat(shards.get(1)).containsExactly(MEDIUM, FAST_1, FAST_2);
+  }
+
+  @Test public void unknownTestsUseDefaultEstimate() {
+    List<List<DeviceTest>> shards =
+        ShardBalancer.balance(Arrays.asList(UNKNOWN, SLOW, MEDIUM), 2, history(), JUNIT, 40);
+    assertThat(shards.get(0)).containsExactly(SLOW);
+    assertThat(shards.get(1)).containsExactly(UNKNOWN, MEDIUM);
+  }
+
+  @Test public void emptyHistorySplitsByCount() {
+    TestDurationHistory empty = new TestDurationHistory(new HashMap<String, Long>());
+    List<List<DeviceTest>> shards =
+        ShardBalancer.balance(Arrays.asList(SLOW, MEDIUM, FAST_1, FAST_2, UNKNOWN), 3, empty, JUNIT, 0);
+    assertThat(shards.get(0)).containsExactly(SLOW, FAST_2);
+    assertThat(shards.get(1)).containsExactly(MEDIUM, UNKNOWN);
+    assertThat(shards.get(2)).containsExactly(FAST_1);
+  }
+
+  @Test public void extraShardsStayEmpty() {
+    List<List<DeviceTest>> shards = ShardBalancer.balance(Arrays.asList(SLOW), 3, history(), JUNIT, 5);
+    assertThat(shards.get(0)).containsExactly(SLOW);
+    assertThat(shards.get(1)).isEmpty();
+    assertThat(shards.get(2)).isEmpty();
+  }
+
+  @Test public void historyIsKeyedByAdaptedNames() {
+    DeviceTest scenario = new DeviceTest("Checkout feature", "Pay with a card");
+    DeviceTest other = new DeviceTest("Login feature", "Log in");
+    Map<String, Long> durations = new HashMap<String, Long>();
+    durations.put("CheckoutFeature#testPayWithACard", 60L);
+    TestDurationHistory history = new TestDurationHistory(durations);
+
+    List<List<DeviceTest>> shards = ShardBalancer.balance(Arrays.asList(other, scenario), 2, history, CUCUMBER, 5);
+    assertThat(shards.get(0)).containsExactly(scenario);
+    assertThat(shards.get(1)).containsExactly(other);
+  }
+
+  @Test public void wholeClassesArePassedByName() {
+    List<DeviceTest> suite = Arrays.asList(SLOW, FAST_1, FAST_2, MEDIUM);
+    assertThat(ShardBalancer.testNames(Arrays.asList(FAST_2, SLOW, FAST_1), suite)) //
+        .containsExactly("com.example.FastTest", "com.example.SlowTest");
+    assertThat(ShardBalancer.testNames(Arrays.asList(FAST_1, MEDIUM), suite)) //
+        .containsExactly("com.example.FastTest#testOne", "com.example.MediumTest");
+  }
+}
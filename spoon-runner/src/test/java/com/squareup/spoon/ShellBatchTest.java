@@ -0,0 +1,63 @@
+package com.squareup.spoon;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ShellBatchTest {
+  @Test public void outputIsSplitPerCommand() {
+    ShellBatch batch = new ShellBatch();
+    ShellBatch.Result first = batch.add("echo $EXTERNAL_STORAGE");
+    ShellBatch.Result second = batch.add("pm grant com.example android.permission.CAMERA");
+    ShellBatch.Result third = batch.add("true");
+    String script = batch.script();
+
+    batch.parse("/sdcard\n" + end(script, 0, 0)
+        + "Bad argument\nUsage: pm grant" + end(script, 1, 255)
+        + end(script, 2, 0));
+
+    assertThat(first.getOutput()).isEqualTo("/sdcard\n");
+    assertThat(first.succeeded()).isTrue();
+    assertThat(second.getOutput()).isEqualTo("Bad argument\nUsage: pm grant");
+    assertThat(second.getExitCode()).isEqualTo(255);
+    assertThat(second.succeeded()).isFalse();
+    assertThat(third.getOutput()).isEmpty();
+    assertThat(third.succeeded()).isTrue();
+  }
+
+  @Test public void carriageReturnsOfOldDevicesAreHandled() {
+    ShellBatch batch = new ShellBatch();
+    ShellBatch.Result first = batch.add("echo $EXTERNAL_STORAGE");
+    ShellBatch.Result second = batch.add("true");
+    String script = batch.script();
+
+    batch.parse(("/mnt/sdcard" + end(script, 0, 0) + end(script, 1, 1)).replace("\n", "\r\n"));
+
+    assertThat(first.getOutput()).isEqualTo("/mnt/sdcard");
+    assertThat(first.getExitCode()).isEqualTo(0);
+    assertThat(second.getOutput()).isEmpty();
+    assertThat(second.getExitCode()).isEqualTo(1);
+  }
+
+  @Test public void commandsAfterAnAbortedSessionAreIncomplete() {
+    ShellBatch batch = new ShellBatch();
+    ShellBatch.Result first = batch.add("getprop");
+    ShellBatch.Result second = batch.add("echo $EXTERNAL_STORAGE");
+    String script = batch.script();
+
+    batch.parse("[ro.product.model]: [Nexus]" + end(script, 0, 0) + "/sdc");
+
+    assertThat(first.isComplete()).isTrue();
+    assertThat(first.getOutput()).isEqualTo("[ro.product.model]: [Nexus]");
+    assertThat(second.isComplete()).isFalse();
+    assertThat(second.getOutput()).isNull();
+    assertThat(second.getExitCode()).isEqualTo(-1);
+  }
+
+  /** What the shell prints after command {@code index} of {@code script} exits with {@code exitCode}. */
+  private static String end(String script, int index, int exitCode) {
+    int start = script.indexOf("SPOON-");
+    String marker = script.substring(start, script.indexOf(' ', start));
+    return "\n" + marker + " " + index + " " + exitCode + "\n";
+  }
+}
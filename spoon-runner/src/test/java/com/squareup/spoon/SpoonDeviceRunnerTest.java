@@ -0,0 +1,35 @@
+package com.squareup.spoon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static com.squareup.spoon.SpoonDeviceRunner.MAX_TEST_NAMES_LENGTH;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SpoonDeviceRunnerTest {
+  @Test public void shortListsAreOneBatch() {
+    List<String> names = Arrays.asList("com.example.FooTest", "com.example.BarTest#testBar");
+    assertThat(SpoonDeviceRunner.batches(names)).containsExactly(names);
+  }
+
+  @Test public void longListsAreSplit() {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      names.add("com.example.SomeRatherLongTestClassName" + i + "#testMethod");
+    }
+    List<List<String>> batches = SpoonDeviceRunner.batches(names);
+    assertThat(batches.size()).isGreaterThan(1);
+    List<String> all = new ArrayList<String>();
+    for (List<String> batch : batches) {
+      int length = -1;
+      for (String name : batch) {
+        length += name.length() + 1;
+      }
+      assertThat(length).isLessThanOrEqualTo(MAX_TEST_NAMES_LENGTH);
+      all.addAll(batch);
+    }
+    assertThat(all).isEqualTo(names);
+  }
+}
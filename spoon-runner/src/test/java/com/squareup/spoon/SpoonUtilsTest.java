@@ -1,7 +1,15 @@
 package com.squareup.spoon;
 
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import static com.android.ddmlib.Log.LogLevel.INFO;
+import static com.android.ddmlib.Log.LogLevel.WARN;
+import static com.google.common.base.Charsets.UTF_8;
 import static org.fest.assertions.api.Assertions.assertThat;
 
 public class SpoonUtilsTest {
@@ -11,4 +19,66 @@ public class SpoonUtilsTest {
     assertThat(SpoonUtils.sanitizeSerial("ST-398H984")).isEqualTo("ST-398H984");
     assertThat(SpoonUtils.sanitizeSerial("10.0.0.1:1234")).isEqualTo("10_0_0_1_1234");
   }
+
+  @Test public void moveDirectoryMergesIntoExisting() throws IOException {
+    File root = Files.createTempDir();
+    try {
+      File source = new File(root, "work/com.example.FooTest");
+      new File(source, "testBar").mkdirs();
+      Files.write("new", new File(source, "testBar/1_start.png"), UTF_8);
+      File destination = new File(root, "image/com.example.FooTest");
+      new File(destination, "testBaz").mkdirs();
+      Files.write("old", new File(destination, "testBaz/1_start.png"), UTF_8);
+
+      SpoonUtils.moveDirectory(source, destination);
+
+      assertThat(source.exists()).isFalse();
+      assertThat(Files.toString(new File(destination, "testBar/1_start.png"), UTF_8)).isEqualTo("new");
+      assertThat(Files.toString(new File(destination, "testBaz/1_start.png"), UTF_8)).isEqualTo("old");
+
+      File moved = new File(root, "image/com.example.BarTest");
+      SpoonUtils.moveDirectory(destination, moved);
+      assertThat(destination.exists()).isFalse();
+      assertThat(new File(moved, "testBar/1_start.png").exists()).isTrue();
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  @Test public void deleteInBackgroundFreesTheNameRightAway() throws Exception {
+    File root = Files.createTempDir();
+    try {
+      File output = new File(root, "spoon-output");
+      new File(output, "image").mkdirs();
+      File leftover = new File(root, ".spoon-output-deleting-1234");
+      leftover.mkdirs();
+      File other = new File(root, "other");
+      other.mkdirs();
+
+      Thread deletion = SpoonUtils.deleteInBackground(output);
+      assertThat(output.exists()).isFalse();
+      deletion.join();
+
+      assertThat(root.list()).containsOnly("other");
+    } finally {
+      FileUtils.deleteDirectory(root);
+    }
+  }
+
+  @Test public void reportLogsAreWrittenAsTheirSize() throws IOException {
+    File root = Files.createTempDir();
+    try {
+      LogStore store = new LogStore(new File(root, "device.log"));
+      store.append(new LogCatMessage(INFO, "100", "101", "com.example", "App", "05-13 16:02:09.007", "started"));
+      store.append(new LogCatMessage(WARN, "100", "101", "com.example", null, "05-13 16:02:09.010", "said \"hi\"\n"));
+      store.close();
+
+      assertThat(SpoonUtils.REPORT_GSON.toJson(new TestLog(store, 0, 2), TestLog.class)).isEqualTo("2");
+      assertThat(SpoonUtils.REPORT_GSON.fromJson("2", TestLog.class).isEmpty()).isTrue();
+      assertThat(SpoonUtils.REPORT_GSON.fromJson("null", TestLog.class)).isNull();
+    } finally {
+      LogStore.release(root);
+      FileUtils.deleteDirectory(root);
+    }
+  }
 }
@@ -0,0 +1,68 @@
+package com.squareup.spoon;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static com.squareup.spoon.SpoonWorkQueue.Granularity.CLASS;
+import static com.squareup.spoon.SpoonWorkQueue.Granularity.METHOD;
+import static com.squareup.spoon.SpoonWorkQueue.WorkUnit;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SpoonWorkQueueTest {
+  private static final List<DeviceTest> TESTS = Arrays.asList( //
+      new DeviceTest("com.example.LoginTest", "testLogin"), //
+      new DeviceTest("com.example.LoginTest", "testLogout"), //
+      new DeviceTest("com.example.OrderTest", "testOrder"));
+
+  @Test public void classGranularityGroupsMethods() {
+    SpoonWorkQueue queue = SpoonWorkQueue.create(TESTS, CLASS);
+    assertThat(queue.size()).isEqualTo(2);
+    assertThat(queue.poll()).isEqualTo(new WorkUnit("com.example.LoginTest", null));
+    assertThat(queue.poll()).isEqualTo(new WorkUnit("com.example.OrderTest", null));
+    assertThat(queue.poll()).isNull();
+  }
+
+  @Test public void methodGranularityKeepsEveryTest() {
+    SpoonWorkQueue queue = SpoonWorkQueue.create(TESTS, METHOD);
+    assertThat(queue.size()).isEqualTo(3);
+    assertThat(queue.poll().toString()).isEqualTo("com.example.LoginTest#testLogin");
+    assertThat(queue.poll().toString()).isEqualTo("com.example.LoginTest#testLogout");
+    assertThat(queue.poll().toString()).isEqualTo("com.example.OrderTest#testOrder");
+    assertThat(queue.poll()).isNull();
+  }
+
+  @Test public void requeuedUnitsAreRunLast() {
+    SpoonWorkQueue queue = SpoonWorkQueue.create(TESTS, CLASS);
+    WorkUnit first = queue.poll();
+    queue.requeue(first);
+    assertThat(queue.poll()).isEqualTo(new WorkUnit("com.example.OrderTest", null));
+    assertThat(queue.poll()).isEqualTo(first);
+  }
+
+  @Test public void unitsAreGivenUpAfterMaxAttempts() {
+    SpoonWorkQueue queue = SpoonWorkQueue.create(TESTS, CLASS);
+    WorkUnit first = queue.poll();
+    for (int i = 1; i < SpoonWorkQueue.MAX_ATTEMPTS; i++) {
+      assertThat(queue.requeue(first)).isTrue();
+    }
+    assertThat(queue.requeue(first)).isFalse();
+    assertThat(queue.drain()).containsExactly(new WorkUnit("com.example.OrderTest", null), first);
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test public void notRunTestsAreErrors() {
+    SpoonWorkQueue queue = SpoonWorkQueue.create(TESTS, CLASS);
+    DeviceResult.Builder builder = new DeviceResult.Builder();
+    DeviceTest ran = new DeviceTest("com.example.LoginTest", "testLogin");
+    builder.addTestResultBuilder(ran, new DeviceTestResult.Builder().startTest().endTest());
+    queue.recordNotRun(queue.poll(), builder, "Not run.");
+
+    Map<DeviceTest, DeviceTestResult> results = builder.build().getTestResults();
+    assertThat(results).hasSize(2);
+    assertThat(results.get(ran).getStatus()).isEqualTo(DeviceTestResult.Status.PASS);
+    assertThat(results.get(new DeviceTest("com.example.LoginTest", "testLogout")).getStatus()) //
+        .isEqualTo(DeviceTestResult.Status.ERROR);
+  }
+}
@@ -0,0 +1,88 @@
+package com.squareup.spoon;
+
+import com.google.common.io.Files;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TarExtractorTest {
+  private File directory;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon-tar", "");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void extractsFilesAndDirectories() throws IOException {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "SPOON_SCREENSHOTS/", '5', "");
+    entry(tar, "SPOON_SCREENSHOTS/com.example.FooTest/", '5', "");
+    entry(tar, "SPOON_SCREENSHOTS/com.example.FooTest/testBar/1_start.png", '0', "first");
+    entry(tar, "SPOON_SCREENSHOTS/com.example.FooTest/testBar/2_end.png", '0', "");
+    tar.write(new byte[1024]);
+
+    int files = TarExtractor.extract(new ByteArrayInputStream(tar.toByteArray()), directory);
+
+    assertThat(files).isEqualTo(2);
+    File testDir = new File(directory, "SPOON_SCREENSHOTS/com.example.FooTest/testBar");
+    assertThat(Files.toString(new File(testDir, "1_start.png"), UTF_8)).isEqualTo("first");
+    assertThat(new File(testDir, "2_end.png").length()).isEqualTo(0);
+  }
+
+  @Test public void gnuLongNames() throws IOException {
+    StringBuilder longName = new StringBuilder("SPOON_SCREENSHOTS/com.example.FooTest/");
+    while (longName.length() < 150) {
+      longName.append("testWithAVeryLongName");
+    }
+    longName.append("/1_start.png");
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "././@LongLink", 'L', longName + "\0");
+    entry(tar, longName.substring(0, 100), '0', "screenshot");
+
+    assertThat(TarExtractor.extract(new ByteArrayInputStream(tar.toByteArray()), directory)).isEqualTo(1);
+    assertThat(Files.toString(new File(directory, longName.toString()), UTF_8)).isEqualTo("screenshot");
+  }
+
+  @Test public void refusesToEscapeTheDirectory() throws IOException {
+    ByteArrayOutputStream tar = new ByteArrayOutputStream();
+    entry(tar, "SPOON_SCREENSHOTS/../../evil.png", '0', "evil");
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(tar.toByteArray()), directory);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  private static void entry(ByteArrayOutputStream tar, String name, char type, String content) throws IOException {
+    byte[] data = content.getBytes(UTF_8);
+    byte[] header = new byte[512];
+    put(header, 0, name);
+    put(header, 100, "0000644");
+    put(header, 124, String.format("%011o", data.length));
+    header[156] = (byte) type;
+    put(header, 257, "ustar");
+    put(header, 263, "00");
+    tar.write(header);
+    tar.write(data);
+    tar.write(new byte[(512 - data.length % 512) % 512]);
+  }
+
+  private static void put(byte[] header, int offset, String value) {
+    byte[] bytes = value.getBytes(UTF_8);
+    System.arraycopy(bytes, 0, header, offset, bytes.length);
+  }
+}
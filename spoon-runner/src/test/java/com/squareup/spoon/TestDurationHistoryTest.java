@@ -0,0 +1,32 @@
+package com.squareup.spoon;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TestDurationHistoryTest {
+  private static final DeviceTest PASSED = new DeviceTest("com.example.LoginTest", "testLogin");
+  private static final DeviceTest NOT_RUN = new DeviceTest("com.example.SlowTest", "testSlow");
+
+  @Test public void testsWhichDidNotRunKeepTheirDuration() {
+    Map<String, Long> durations = new HashMap<String, Long>();
+    durations.put(PASSED.toString(), 20L);
+    durations.put(NOT_RUN.toString(), 60L);
+    TestDurationHistory history = new TestDurationHistory(durations);
+
+    DeviceResult.Builder result = new DeviceResult.Builder();
+    result.addTestResultBuilder(PASSED, new DeviceTestResult.Builder().startTest().endTest());
+    result.addTestResultBuilder(NOT_RUN, new DeviceTestResult.Builder().markTestAsError("Not run.").startTest().endTest());
+    history.record(new SpoonSummary.Builder() //
+        .setTitle("test") //
+        .start() //
+        .addResult("123", result.build()) //
+        .end() //
+        .build());
+
+    assertThat(history.estimate(PASSED, 1)).isEqualTo(0);
+    assertThat(history.estimate(NOT_RUN, 1)).isEqualTo(60);
+  }
+}
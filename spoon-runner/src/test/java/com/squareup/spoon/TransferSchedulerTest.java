@@ -0,0 +1,64 @@
+package com.squareup.spoon;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.squareup.spoon.TransferScheduler.Priority.BACKGROUND;
+import static com.squareup.spoon.TransferScheduler.Priority.BLOCKING;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TransferSchedulerTest {
+  private File directory;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon-transfers", "");
+    directory.delete();
+  }
+
+  @After public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void transfersWaitForAFreeSlot() throws InterruptedException {
+    final TransferScheduler scheduler = new TransferScheduler(directory, "hub", 1);
+    TransferScheduler.Slot first = scheduler.acquire(BLOCKING);
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          scheduler.acquire(BACKGROUND).release();
+          acquired.countDown();
+        } catch (InterruptedException ignored) {
+        }
+      }
+    }).start();
+    assertThat(acquired.await(500, TimeUnit.MILLISECONDS)).isFalse();
+
+    first.release();
+    assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void groupsHaveTheirOwnSlots() throws InterruptedException {
+    TransferScheduler.Slot first = new TransferScheduler(directory, "hub-1", 1).acquire(BLOCKING);
+    TransferScheduler.Slot second = new TransferScheduler(directory, "hub-2", 1).acquire(BLOCKING);
+    assertThat(second.getWaitMillis()).isLessThan(250);
+    first.release();
+    second.release();
+  }
+
+  @Test public void noLimitNeverWaits() throws InterruptedException {
+    TransferScheduler scheduler = new TransferScheduler(directory, "hub", 0);
+    TransferScheduler.Slot first = scheduler.acquire(BLOCKING);
+    TransferScheduler.Slot second = scheduler.acquire(BLOCKING);
+    assertThat(second.getWaitMillis()).isEqualTo(0);
+    first.release();
+    second.release();
+  }
+}
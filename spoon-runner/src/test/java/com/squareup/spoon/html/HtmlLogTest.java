@@ -0,0 +1,75 @@
+package com.squareup.spoon.html;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatMessage;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class HtmlLogTest {
+  private static final String PREFIX = "spoonLog(\"";
+  private static final String SUFFIX = "\");\n";
+
+  private File directory;
+
+  @Before public void setUp() throws IOException {
+    directory = File.createTempFile("spoon", "log");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test public void scriptHoldsOneArrayPerLine() throws IOException {
+    List<LogCatMessage> log = Arrays.asList( //
+        message(LogLevel.INFO, "TestRunner", "started: testOne(com.example.Test)"), //
+        message(LogLevel.WARN, null, "No tag"), //
+        message(null, "Quotes", "Said \"hi\" and\nleft"));
+    File script = new File(directory, "testOne" + HtmlLog.SCRIPT_EXTENSION);
+
+    long size = HtmlLog.writeScript(log, script);
+
+    String json = unpack(script);
+    assertThat(size).isEqualTo(json.getBytes(UTF_8).length);
+    assertThat(json.split("\n", -1)).containsExactly( //
+        "[\"01-02 03:04:05.678\",\"info\",\"TestRunner\",\"started: testOne(com.example.Test)\"]", //
+        "[\"01-02 03:04:05.678\",\"warn\",null,\"No tag\"]", //
+        "[\"01-02 03:04:05.678\",\"\",\"Quotes\",\"Said \\\"hi\\\" and\\nleft\"]", //
+        "");
+  }
+
+  @Test public void emptyLogWritesEmptyPayload() throws IOException {
+    File script = new File(directory, "testEmpty" + HtmlLog.SCRIPT_EXTENSION);
+
+    assertThat(HtmlLog.writeScript(Arrays.<LogCatMessage>asList(), script)).isEqualTo(0);
+    assertThat(unpack(script)).isEmpty();
+  }
+
+  private static LogCatMessage message(LogLevel level, String tag, String text) {
+    return new LogCatMessage(level, "123", "123", "com.example", tag, "01-02 03:04:05.678", text);
+  }
+
+  /** Strip the function call, decode and gunzip the payload of {@code script}. */
+  private static String unpack(File script) throws IOException {
+    String source = Files.toString(script, UTF_8);
+    assertThat(source).startsWith(PREFIX).endsWith(SUFFIX);
+    byte[] compressed =
+        BaseEncoding.base64().decode(source.substring(PREFIX.length(), source.length() - SUFFIX.length()));
+    return new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))), UTF_8);
+  }
+}